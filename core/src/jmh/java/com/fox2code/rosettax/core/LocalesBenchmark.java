@@ -0,0 +1,118 @@
+package com.fox2code.rosettax.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the locales matching, parsing and validation with a growing number of supported
+ * locales, each operation is done once per supported locale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LocalesBenchmark {
+    @Param({"10", "100", "500"})
+    public int supportedLocales;
+
+    private Locale[] mSupported;
+    private List<Locale> mSupportedList;
+    private String[] mTags;
+    private Locale[] mQueries;
+    private LocalesMatcher mMatcher;
+
+    @Setup
+    public void setup() {
+        // Regional locales first, as apps mostly ship them, sorted to be stable between JVMs
+        LinkedHashMap<String, Locale> available = new LinkedHashMap<>();
+        Locale[] locales = Locale.getAvailableLocales();
+        Arrays.sort(locales, (a, b) -> a.toLanguageTag().compareTo(b.toLanguageTag()));
+        for (Locale locale: locales) {
+            if (!locale.getCountry().isEmpty() && locale.getVariant().isEmpty()) {
+                available.put(locale.toLanguageTag(), locale);
+            }
+        }
+        for (Locale locale: locales) {
+            if (locale.getVariant().isEmpty() && !locale.getLanguage().isEmpty()) {
+                available.put(locale.toLanguageTag(), locale);
+            }
+        }
+        if (available.size() < supportedLocales) {
+            throw new IllegalStateException("Only " + available.size() + " locales available");
+        }
+        mSupported = new ArrayList<>(available.values())
+                .subList(0, supportedLocales).toArray(new Locale[0]);
+        mSupportedList = Arrays.asList(mSupported);
+        mTags = new String[mSupported.length];
+        mQueries = new Locale[mSupported.length];
+        for (int i = 0; i < mSupported.length; i++) {
+            Locale locale = mSupported[i];
+            mTags[i] = locale.getCountry().isEmpty() ? locale.getLanguage() :
+                    locale.getLanguage() + "-r" + locale.getCountry();
+            // Same language in another region, so queries are not exact matches
+            mQueries[i] = new Locale(locale.getLanguage(),
+                    locale.getCountry().equals("ZZ") ? "YY" : "ZZ");
+        }
+        mMatcher = new LocalesMatcher(mSupported);
+    }
+
+    @Benchmark
+    public LocalesMatcher buildMatcher() {
+        return new LocalesMatcher(mSupported);
+    }
+
+    @Benchmark
+    public void matchExact(Blackhole blackhole) {
+        for (Locale locale: mSupported) {
+            blackhole.consume(mMatcher.getBestIndex(locale));
+        }
+    }
+
+    @Benchmark
+    public void matchClosestMemoized(Blackhole blackhole) {
+        for (Locale locale: mQueries) {
+            blackhole.consume(mMatcher.getBestIndex(locale));
+        }
+    }
+
+    @Benchmark
+    public void matchClosestCold(Blackhole blackhole) {
+        // A new matcher has an empty memo, so every query is really computed
+        LocalesMatcher matcher = new LocalesMatcher(mSupported);
+        for (Locale locale: mQueries) {
+            blackhole.consume(matcher.getBestIndex(locale));
+        }
+    }
+
+    @Benchmark
+    public void fallbackLocales(Blackhole blackhole) {
+        for (Locale locale: mSupported) {
+            blackhole.consume(LocalesMatcher.getFallbackLocales(locale));
+        }
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (String tag: mTags) {
+            blackhole.consume(Locales.parse(tag));
+        }
+    }
+
+    @Benchmark
+    public Object validate() {
+        return Locales.validate(mSupportedList, null);
+    }
+}
@@ -0,0 +1,348 @@
+package com.fox2code.rosettax.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * This class discovers locales by reading the string type configurations of a resources.arsc
+ * table directly, so no Resources object is created for each candidate locale.
+ * It only depends on the JVM so it can be tested outside of Android.
+ */
+public final class ArscLocalesScanner {
+    private static final String ARSC_NAME = "resources.arsc";
+
+    private static final int RES_STRING_POOL_TYPE = 0x0001;
+    private static final int RES_TABLE_TYPE = 0x0002;
+    private static final int RES_TABLE_PACKAGE_TYPE = 0x0200;
+    private static final int RES_TABLE_TYPE_TYPE = 0x0201;
+
+    private static final int UTF8_FLAG = 1 << 8;
+    private static final int FLAG_SPARSE = 0x01;
+    private static final int FLAG_OFFSET16 = 0x02;
+    private static final int NO_ENTRY = 0xFFFFFFFF;
+    private static final int NO_ENTRY16 = 0xFFFF;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+    private final ByteBuffer mBuffer;
+
+    /**
+     * @param buffer a buffer holding a whole resources.arsc table
+     */
+    public ArscLocalesScanner(ByteBuffer buffer) {
+        this.mBuffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Memory maps the resources.arsc of the given apk, it is stored uncompressed in apks so the
+     * table is read in place without copying it.
+     *
+     * @param apk the apk file, ex. ApplicationInfo.sourceDir
+     * @return a scanner for the apk table, or null if the apk doesn't have a resources table
+     * @throws IOException if the apk can't be read
+     * @throws IllegalArgumentException if the apk zip structure is malformed
+     */
+    public static ArscLocalesScanner fromApk(File apk) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(apk, "r")) {
+            try {
+                FileChannel channel = file.getChannel();
+                long size = channel.size();
+                int tailSize = (int) Math.min(size, 0xFFFF + 22);
+                ByteBuffer tail = channel.map(
+                        FileChannel.MapMode.READ_ONLY, size - tailSize, tailSize)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                int eocd = -1;
+                for (int i = tailSize - 22; i >= 0; i--) {
+                    if (tail.getInt(i) == EOCD_SIGNATURE) {
+                        eocd = i;
+                        break;
+                    }
+                }
+                if (eocd == -1) {
+                    throw new IOException("Not a zip file: " + apk);
+                }
+
+                int entries = tail.getShort(eocd + 10) & 0xFFFF;
+                long centralSize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+                long centralOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+                ByteBuffer central = channel.map(FileChannel.MapMode.READ_ONLY,
+                        centralOffset, centralSize).order(ByteOrder.LITTLE_ENDIAN);
+                byte[] arscName = ARSC_NAME.getBytes(StandardCharsets.US_ASCII);
+                int position = 0;
+                for (int i = 0; i < entries; i++) {
+                    if (central.getInt(position) != CENTRAL_SIGNATURE) {
+                        throw new IOException("Invalid central directory: " + apk);
+                    }
+                    int method = central.getShort(position + 10) & 0xFFFF;
+                    long dataSize = central.getInt(position + 24) & 0xFFFFFFFFL;
+                    int nameLength = central.getShort(position + 28) & 0xFFFF;
+                    int extraLength = central.getShort(position + 30) & 0xFFFF;
+                    int commentLength = central.getShort(position + 32) & 0xFFFF;
+                    long localOffset = central.getInt(position + 42) & 0xFFFFFFFFL;
+                    if (nameEquals(central, position + 46, nameLength, arscName)) {
+                        if (method != ZipEntry.STORED) {
+                            // Old or unusual apks, fallback to a regular read
+                            return fromCompressedApk(apk);
+                        }
+                        ByteBuffer local = channel.map(FileChannel.MapMode.READ_ONLY,
+                                localOffset, 30).order(ByteOrder.LITTLE_ENDIAN);
+                        if (local.getInt(0) != LOCAL_SIGNATURE) {
+                            throw new IOException("Invalid local header: " + apk);
+                        }
+                        long dataOffset = localOffset + 30 + (local.getShort(26) & 0xFFFF) +
+                                (local.getShort(28) & 0xFFFF);
+                        return new ArscLocalesScanner(channel.map(
+                                FileChannel.MapMode.READ_ONLY, dataOffset, dataSize));
+                    }
+                    position += 46 + nameLength + extraLength + commentLength;
+                }
+                return null;
+            } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+                throw new IllegalArgumentException("Malformed zip file: " + apk, e);
+            }
+        }
+    }
+
+    private static ArscLocalesScanner fromCompressedApk(File apk) throws IOException {
+        try (ZipFile zipFile = new ZipFile(apk)) {
+            ZipEntry entry = zipFile.getEntry(ARSC_NAME);
+            byte[] data = new byte[(int) entry.getSize()];
+            try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                int read = 0;
+                while (read < data.length) {
+                    int count = inputStream.read(data, read, data.length - read);
+                    if (count == -1) throw new IOException("Truncated " + ARSC_NAME);
+                    read += count;
+                }
+            }
+            return new ArscLocalesScanner(ByteBuffer.wrap(data));
+        }
+    }
+
+    private static boolean nameEquals(ByteBuffer buffer, int offset, int length, byte[] name) {
+        if (length != name.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param stringIds the string ids a locale must translate to be reported, if none are given
+     *                  every locale that has at least one string is reported
+     * @return the locales that have translations, the default configuration is not included
+     * @throws IllegalArgumentException if the table is malformed
+     */
+    public LinkedHashSet<Locale> scan(int... stringIds) {
+        LinkedHashSet<Locale> result = new LinkedHashSet<>();
+        ByteBuffer buffer = mBuffer;
+        try {
+            if ((buffer.getShort(0) & 0xFFFF) != RES_TABLE_TYPE) {
+                throw new IllegalArgumentException("Not a resources table");
+            }
+            int tableEnd = Math.min(buffer.getInt(4), buffer.limit());
+            int position = buffer.getShort(2) & 0xFFFF;
+            while (position < tableEnd) {
+                int chunkType = buffer.getShort(position) & 0xFFFF;
+                int chunkSize = buffer.getInt(position + 4);
+                if (chunkSize <= 0) {
+                    throw new IllegalArgumentException("Invalid chunk size at " + position);
+                }
+                if (chunkType == RES_TABLE_PACKAGE_TYPE) {
+                    this.scanPackage(position, stringIds, result);
+                }
+                position += chunkSize;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated resources table", e);
+        }
+        return result;
+    }
+
+    private void scanPackage(int packageStart, int[] stringIds, LinkedHashSet<Locale> result) {
+        ByteBuffer buffer = mBuffer;
+        int packageId = buffer.getInt(packageStart + 8);
+        int packageEnd = packageStart + buffer.getInt(packageStart + 4);
+        int typeStrings = packageStart + buffer.getInt(packageStart + 268);
+        int stringTypeId = stringIds.length == 0 ? this.findTypeId(typeStrings, "string") : -1;
+
+        int position = packageStart + (buffer.getShort(packageStart + 2) & 0xFFFF);
+        while (position < packageEnd) {
+            int chunkType = buffer.getShort(position) & 0xFFFF;
+            int chunkSize = buffer.getInt(position + 4);
+            if (chunkSize <= 0) {
+                throw new IllegalArgumentException("Invalid chunk size at " + position);
+            }
+            if (chunkType == RES_TABLE_TYPE_TYPE) {
+                Locale locale = this.readLocale(position + 20);
+                if (locale != null && !result.contains(locale) &&
+                        this.hasEntries(position, packageId, stringTypeId, stringIds)) {
+                    result.add(locale);
+                }
+            }
+            position += chunkSize;
+        }
+    }
+
+    /**
+     * @return true if the type chunk holds one of the wanted strings
+     */
+    private boolean hasEntries(int typeStart, int packageId, int stringTypeId, int[] stringIds) {
+        ByteBuffer buffer = mBuffer;
+        int typeId = buffer.get(typeStart + 8) & 0xFF;
+        if (stringIds.length == 0) {
+            return typeId == stringTypeId && this.findEntry(typeStart, -1);
+        }
+        for (int stringId: stringIds) {
+            if ((stringId >>> 24) == packageId && ((stringId >> 16) & 0xFF) == typeId &&
+                    this.findEntry(typeStart, stringId & 0xFFFF)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param entryIndex the wanted entry, or -1 to check for any entry
+     * @return true if the type chunk has the given entry
+     */
+    private boolean findEntry(int typeStart, int entryIndex) {
+        ByteBuffer buffer = mBuffer;
+        int flags = buffer.get(typeStart + 9) & 0xFF;
+        int entryCount = buffer.getInt(typeStart + 12);
+        int offsets = typeStart + (buffer.getShort(typeStart + 2) & 0xFFFF);
+        if ((flags & FLAG_SPARSE) != 0) {
+            // Sparse entries are (index, offset) pairs sorted by index
+            if (entryIndex == -1) {
+                return entryCount != 0;
+            }
+            for (int i = 0; i < entryCount; i++) {
+                int index = buffer.getShort(offsets + i * 4) & 0xFFFF;
+                if (index == entryIndex) return true;
+                if (index > entryIndex) return false;
+            }
+            return false;
+        }
+        boolean offset16 = (flags & FLAG_OFFSET16) != 0;
+        int from = entryIndex == -1 ? 0 : entryIndex;
+        int to = entryIndex == -1 ? entryCount : Math.min(entryIndex + 1, entryCount);
+        for (int i = from; i < to; i++) {
+            if (offset16 ? (buffer.getShort(offsets + i * 2) & 0xFFFF) != NO_ENTRY16 :
+                    buffer.getInt(offsets + i * 4) != NO_ENTRY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param configStart the offset of a ResTable_config structure
+     * @return the locale of the configuration, or null for the default configuration
+     */
+    private Locale readLocale(int configStart) {
+        ByteBuffer buffer = mBuffer;
+        String language = unpackLocaleCode(buffer, configStart + 8, 'a');
+        if (language == null) {
+            return null;
+        }
+        StringBuilder tag = new StringBuilder(language);
+        if (buffer.getInt(configStart) >= 40) {
+            for (int i = 0; i < 4; i++) {
+                byte b = buffer.get(configStart + 36 + i);
+                if (b == 0) break;
+                if (i == 0) tag.append('-');
+                tag.append((char) b);
+            }
+        }
+        String region = unpackLocaleCode(buffer, configStart + 10, '0');
+        if (region != null) {
+            tag.append('-').append(region);
+        }
+        return Locale.forLanguageTag(tag.toString());
+    }
+
+    /**
+     * Decodes a two bytes language or region code, three letters codes are packed in two bytes.
+     */
+    private static String unpackLocaleCode(ByteBuffer buffer, int offset, char base) {
+        int first = buffer.get(offset) & 0xFF;
+        int second = buffer.get(offset + 1) & 0xFF;
+        if (first == 0) {
+            return null;
+        }
+        if ((first & 0x80) == 0) {
+            return new String(new char[] {(char) first, (char) second});
+        }
+        return new String(new char[] {
+                (char) (base + (second & 0x1F)),
+                (char) (base + (((second & 0xE0) >> 5) | ((first & 0x03) << 3))),
+                (char) (base + ((first & 0x7C) >> 2))});
+    }
+
+    /**
+     * @return the id of the type with the given name, or -1 if missing
+     */
+    private int findTypeId(int poolStart, String name) {
+        ByteBuffer buffer = mBuffer;
+        if ((buffer.getShort(poolStart) & 0xFFFF) != RES_STRING_POOL_TYPE) {
+            throw new IllegalArgumentException("Invalid type strings pool");
+        }
+        int stringCount = buffer.getInt(poolStart + 8);
+        boolean utf8 = (buffer.getInt(poolStart + 16) & UTF8_FLAG) != 0;
+        int stringsStart = poolStart + buffer.getInt(poolStart + 20);
+        int offsets = poolStart + (buffer.getShort(poolStart + 2) & 0xFFFF);
+        for (int i = 0; i < stringCount; i++) {
+            int position = stringsStart + buffer.getInt(offsets + i * 4);
+            if (name.equals(readPoolString(buffer, position, utf8))) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static String readPoolString(ByteBuffer buffer, int position, boolean utf8) {
+        if (utf8) {
+            // Skip the UTF-16 length, then read the UTF-8 length
+            position += (buffer.get(position) & 0x80) != 0 ? 2 : 1;
+            int length = buffer.get(position) & 0xFF;
+            if ((length & 0x80) != 0) {
+                length = ((length & 0x7F) << 8) | (buffer.get(position + 1) & 0xFF);
+                position++;
+            }
+            position++;
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(position + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        int length = buffer.getShort(position) & 0xFFFF;
+        if ((length & 0x8000) != 0) {
+            length = ((length & 0x7FFF) << 16) | (buffer.getShort(position + 2) & 0xFFFF);
+            position += 2;
+        }
+        position += 2;
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(buffer.getChar(position + i * 2));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,94 @@
+package com.fox2code.rosettax.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This class indexes the locales available on the device by their canonical BCP-47 tag, so
+ * validating a locale is a hash lookup instead of a scan of all available locales.
+ * The index is built once per process, the first time it is needed.
+ */
+public final class AvailableLocalesIndex {
+    /**
+     * Tags that are not canonical, but still used by apps or old Android versions
+     */
+    private static final Map<String, String> ALIASES;
+
+    static {
+        HashMap<String, String> aliases = new HashMap<>();
+        aliases.put("zh-Hans", "zh-CN");
+        aliases.put("zh-Hant", "zh-TW");
+        // Workaround for a common mistake, CH is Switzerland not China
+        aliases.put("zh-CH", "zh-CN");
+        ALIASES = Collections.unmodifiableMap(aliases);
+    }
+
+    private final Map<String, Locale> mLocales;
+
+    private AvailableLocalesIndex(Locale[] availableLocales) {
+        HashMap<String, Locale> locales = new HashMap<>(availableLocales.length * 4);
+        for (Locale locale: availableLocales) {
+            locales.put(locale.toLanguageTag(), locale);
+        }
+        // Android may only list scripted or regional forms, ex. "zh-Hans-CN" but not "zh-CN"
+        for (Locale locale: availableLocales) {
+            String language = locale.getLanguage();
+            String country = locale.getCountry();
+            if (!country.isEmpty()) {
+                Locale regional = new Locale(language, country);
+                putIfAbsent(locales, regional.toLanguageTag(), regional);
+            }
+            Locale generic = new Locale(language);
+            putIfAbsent(locales, generic.toLanguageTag(), generic);
+        }
+        this.mLocales = Collections.unmodifiableMap(locales);
+    }
+
+    private static void putIfAbsent(HashMap<String, Locale> locales, String tag, Locale locale) {
+        if (!locales.containsKey(tag)) {
+            locales.put(tag, locale);
+        }
+    }
+
+    /**
+     * @return the process wide index
+     */
+    public static AvailableLocalesIndex get() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * @param locale the locale to canonicalize
+     * @return the canonical form of the locale, ex. "iw" become "he" and "zh-Hant" become "zh-TW"
+     */
+    @NonNull
+    public static Locale canonicalize(@NonNull Locale locale) {
+        // toLanguageTag already replaces deprecated ISO 639 codes
+        String tag = locale.toLanguageTag();
+        String alias = ALIASES.get(tag);
+        return Locale.forLanguageTag(alias != null ? alias : tag);
+    }
+
+    /**
+     * @param locale the locale to look for
+     * @return the available locale matching the canonical form of the given one, or null
+     */
+    @Nullable
+    public Locale find(@NonNull Locale locale) {
+        Locale available = mLocales.get(locale.toLanguageTag());
+        if (available == null) {
+            available = mLocales.get(canonicalize(locale).toLanguageTag());
+        }
+        return available;
+    }
+
+    private static final class Holder {
+        static final AvailableLocalesIndex INSTANCE =
+                new AvailableLocalesIndex(Locale.getAvailableLocales());
+    }
+}
@@ -0,0 +1,99 @@
+package com.fox2code.rosettax.core;
+
+import java.util.HashMap;
+
+/**
+ * This class holds a compact subset of the CLDR likely subtags and region containment data, it
+ * is used to compare locales that are not written the same way, ex. "zh-TW" and "zh-Hant".
+ */
+public final class LikelySubtags {
+    private static final HashMap<String, String> sLikelyRegions = new HashMap<>();
+    private static final HashMap<String, String> sLikelyScripts = new HashMap<>();
+    private static final HashMap<String, String> sRegionGroups = new HashMap<>();
+
+    static {
+        String[] likely = {
+                "af-Latn-ZA", "am-Ethi-ET", "ar-Arab-EG", "az-Latn-AZ", "be-Cyrl-BY",
+                "bg-Cyrl-BG", "bn-Beng-BD", "ca-Latn-ES", "cs-Latn-CZ", "da-Latn-DK",
+                "de-Latn-DE", "el-Grek-GR", "en-Latn-US", "es-Latn-ES", "et-Latn-EE",
+                "fa-Arab-IR", "fi-Latn-FI", "fil-Latn-PH", "fr-Latn-FR", "he-Hebr-IL",
+                "hi-Deva-IN", "hr-Latn-HR", "hu-Latn-HU", "hy-Armn-AM", "id-Latn-ID",
+                "it-Latn-IT", "ja-Jpan-JP", "ka-Geor-GE", "kk-Cyrl-KZ", "km-Khmr-KH",
+                "ko-Kore-KR", "lt-Latn-LT", "lv-Latn-LV", "mk-Cyrl-MK", "ms-Latn-MY",
+                "nb-Latn-NO", "ne-Deva-NP", "nl-Latn-NL", "pl-Latn-PL", "pt-Latn-BR",
+                "ro-Latn-RO", "ru-Cyrl-RU", "sk-Latn-SK", "sl-Latn-SI", "sq-Latn-AL",
+                "sr-Cyrl-RS", "sv-Latn-SE", "sw-Latn-TZ", "ta-Taml-IN", "th-Thai-TH",
+                "tr-Latn-TR", "uk-Cyrl-UA", "ur-Arab-PK", "uz-Latn-UZ", "vi-Latn-VN",
+                "zh-Hans-CN",
+        };
+        for (String tag: likely) {
+            String[] parts = tag.split("-");
+            sLikelyScripts.put(parts[0], parts[1]);
+            sLikelyRegions.put(parts[0], parts[2]);
+        }
+        // Regions where the script differs from the language default one
+        for (String region: new String[] {"TW", "HK", "MO"}) {
+            sLikelyScripts.put("zh-" + region, "Hant");
+        }
+        // Regions close enough to share translations, ex. es-MX is closer to es-419 than es-ES
+        for (String region: new String[] {"419", "AR", "BO", "CL", "CO", "CR", "CU", "DO",
+                "EC", "GT", "HN", "MX", "NI", "PA", "PE", "PR", "PY", "SV", "US", "UY", "VE"}) {
+            sRegionGroups.put("es-" + region, "419");
+        }
+        for (String region: new String[] {"AU", "BE", "GB", "GG", "GI", "HK", "IE", "IM", "IN",
+                "JE", "MT", "NZ", "PK", "SG", "ZA"}) {
+            sRegionGroups.put("en-" + region, "GB");
+        }
+        for (String region: new String[] {"AO", "CH", "CV", "GQ", "GW", "LU", "MO", "MZ", "PT",
+                "ST", "TL"}) {
+            sRegionGroups.put("pt-" + region, "PT");
+        }
+    }
+
+    private LikelySubtags() {}
+
+    /**
+     * @param language a language code
+     * @return the current ISO 639 code of the language, Android still uses deprecated ones
+     */
+    public static String normalizeLanguage(String language) {
+        switch (language) {
+            case "iw":
+                return "he";
+            case "in":
+                return "id";
+            case "ji":
+                return "yi";
+            default:
+                return language;
+        }
+    }
+
+    /**
+     * @param language a normalized language code
+     * @return the region the language is the most likely spoken in, or null if unknown
+     */
+    public static String getLikelyRegion(String language) {
+        return sLikelyRegions.get(language);
+    }
+
+    /**
+     * @param language a normalized language code
+     * @param region the region, may be empty
+     * @return the script the language is the most likely written in, or null if unknown
+     */
+    public static String getLikelyScript(String language, String region) {
+        String script = region.isEmpty() ? null : sLikelyScripts.get(language + "-" + region);
+        return script != null ? script : sLikelyScripts.get(language);
+    }
+
+    /**
+     * @param language a normalized language code
+     * @param region a region
+     * @return the group of regions sharing translations the region belongs to
+     */
+    public static String getRegionGroup(String language, String region) {
+        String group = sRegionGroups.get(language + "-" + region);
+        return group != null ? group : region;
+    }
+}
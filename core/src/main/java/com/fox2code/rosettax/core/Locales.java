@@ -0,0 +1,70 @@
+package com.fox2code.rosettax.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * This class holds the locales parsing and validation logic, it doesn't depend on Android so it
+ * can be tested and benchmarked on any JVM.
+ */
+public final class Locales {
+    private static final List<Locale> PSEUDO_LOCALES = Collections.unmodifiableList(Arrays.asList(
+            new Locale("en", "XA"),
+            new Locale("ar", "XB")
+    ));
+
+    private Locales() {}
+
+    /**
+     * @return pseudo locales list
+     * @see <a href="http://en.wikipedia.org/wiki/Pseudolocalization">Pseudolocalization</a> for
+     * more information about pseudo localization
+     */
+    @NonNull
+    public static List<Locale> getPseudoLocales() {
+        return PSEUDO_LOCALES;
+    }
+
+    /**
+     * @param locale the locale string, ex. "fr", "pt-BR" or "pt-rBR"
+     * @return parsed local object
+     */
+    @NonNull
+    public static Locale parse(@NonNull String locale) {
+        int i = locale.indexOf('-');
+        return i == -1 || i + 1 == locale.length() ? new Locale(locale) :
+                new Locale(locale.substring(0, i), locale.substring(
+                        i + (locale.charAt(i + 1) == 'r' ? 2 : 1)));
+    }
+
+    /**
+     * Validates locales by checking if their canonical form is available, pseudo locales are
+     * always discarded.
+     * @param locales to be checked
+     * @param discarded if not null, receives the discarded locales
+     * @return valid locales, in the same order
+     */
+    @NonNull
+    public static LinkedHashSet<Locale> validate(
+            @NonNull Collection<Locale> locales, @Nullable Collection<Locale> discarded) {
+        LinkedHashSet<Locale> cleanLocales = new LinkedHashSet<>();
+        AvailableLocalesIndex availableLocales = AvailableLocalesIndex.get();
+        for (Locale locale: locales) {
+            Locale available = PSEUDO_LOCALES.contains(locale) ? null :
+                    availableLocales.find(locale);
+            if (available != null) {
+                cleanLocales.add(available);
+            } else if (discarded != null) {
+                discarded.add(locale);
+            }
+        }
+        return cleanLocales;
+    }
+}
@@ -0,0 +1,216 @@
+package com.fox2code.rosettax.core;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class finds the supported locale the closest to a given one. Supported locales are indexed
+ * by tag and by language when the matcher is built, and results are memoized, so a lookup doesn't
+ * walk all the supported locales.
+ *
+ * Locales are compared after being maximized with {@link LikelySubtags}, the script matters
+ * the most (zh-Hant is useless to a zh-Hans reader), then the region, then the region group.
+ */
+public final class LocalesMatcher {
+    private static final int SCORE_LANGUAGE = 1;
+    private static final int SCORE_SCRIPT = 8;
+    private static final int SCORE_REGION = 4;
+    private static final int SCORE_REGION_GROUP = 2;
+    private static final int SCORE_LIKELY_REGION = 1;
+
+    private final Locale[] mLocales;
+    private final HashMap<Locale, Integer> mExact;
+    private final HashMap<String, int[]> mByLanguage;
+    private final ConcurrentHashMap<Locale, Integer> mBestIndexes;
+    private volatile String[] mDisplayNames;
+    private volatile String[] mSearchKeys;
+
+    /**
+     * @param locales the supported locales, in the order of their indexes
+     */
+    public LocalesMatcher(@NonNull Locale[] locales) {
+        this.mLocales = locales;
+        this.mExact = new HashMap<>(locales.length * 2);
+        this.mBestIndexes = new ConcurrentHashMap<>();
+        HashMap<String, ArrayList<Integer>> byLanguage = new HashMap<>();
+        for (int i = 0; i < locales.length; i++) {
+            if (!this.mExact.containsKey(locales[i])) {
+                this.mExact.put(locales[i], i);
+            }
+            String language = LikelySubtags.normalizeLanguage(locales[i].getLanguage());
+            ArrayList<Integer> indexes = byLanguage.get(language);
+            if (indexes == null) {
+                byLanguage.put(language, indexes = new ArrayList<>());
+            }
+            indexes.add(i);
+        }
+        this.mByLanguage = new HashMap<>(byLanguage.size() * 2);
+        for (HashMap.Entry<String, ArrayList<Integer>> entry: byLanguage.entrySet()) {
+            ArrayList<Integer> indexes = entry.getValue();
+            int[] array = new int[indexes.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = indexes.get(i);
+            }
+            this.mByLanguage.put(entry.getKey(), array);
+        }
+    }
+
+    /**
+     * @return the number of supported locales
+     */
+    public int size() {
+        return mLocales.length;
+    }
+
+    /**
+     * @return the locale at the given index
+     */
+    public Locale getLocale(int index) {
+        return mLocales[index];
+    }
+
+    /**
+     * The names are computed once per matcher, as the first call loads ICU display names data.
+     * @return the native display names of the supported locales, must not be modified
+     */
+    public String[] getDisplayNames() {
+        String[] displayNames = mDisplayNames;
+        if (displayNames == null) {
+            displayNames = new String[mLocales.length];
+            for (int i = 0; i < displayNames.length; i++) {
+                displayNames[i] = getDisplayName(mLocales[i]);
+            }
+            mDisplayNames = displayNames;
+        }
+        return displayNames;
+    }
+
+    /**
+     * The keys are computed once per matcher, so language pickers don't normalize names each time
+     * they are opened.
+     * @return the search keys of the supported locales, must not be modified
+     */
+    public String[] getSearchKeys() {
+        String[] searchKeys = mSearchKeys;
+        if (searchKeys == null) {
+            searchKeys = LocalesSearchIndex.computeKeys(mLocales, this.getDisplayNames());
+            mSearchKeys = searchKeys;
+        }
+        return searchKeys;
+    }
+
+    /**
+     * @param locale the locale to display
+     * @return the name of the locale in itself, capitalized for use in a list
+     */
+    public static String getDisplayName(@NonNull Locale locale) {
+        String displayName = locale.getDisplayName(locale);
+        if (displayName.isEmpty()) {
+            return displayName;
+        }
+        int firstLength = Character.charCount(displayName.codePointAt(0));
+        return displayName.substring(0, firstLength).toUpperCase(locale) +
+                displayName.substring(firstLength);
+    }
+
+    /**
+     * @return the index of the given locale, or -1 if not supported
+     */
+    public int getIndex(Locale locale) {
+        Integer index = mExact.get(locale);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @param locale the locale to match
+     * @return the index of the closest supported locale, -1 if none share its language
+     */
+    public int getBestIndex(@NonNull Locale locale) {
+        Integer index = mExact.get(locale);
+        if (index == null) {
+            index = mBestIndexes.get(locale);
+            if (index == null) {
+                index = this.computeBestIndex(locale);
+                mBestIndexes.put(locale, index);
+            }
+        }
+        return index;
+    }
+
+    private int computeBestIndex(Locale locale) {
+        String language = LikelySubtags.normalizeLanguage(locale.getLanguage());
+        int[] candidates = mByLanguage.get(language);
+        if (candidates == null) {
+            return -1;
+        }
+        String region = maximizeRegion(language, locale.getCountry());
+        String script = maximizeScript(language, locale.getScript(), region);
+        String regionGroup = region == null ? null : LikelySubtags.getRegionGroup(language, region);
+        String likelyRegion = LikelySubtags.getLikelyRegion(language);
+
+        int bestIndex = -1;
+        int bestScore = -1;
+        for (int candidate: candidates) {
+            Locale other = mLocales[candidate];
+            String otherRegion = maximizeRegion(language, other.getCountry());
+            String otherScript = maximizeScript(language, other.getScript(), otherRegion);
+            int score = SCORE_LANGUAGE;
+            if (script == null || otherScript == null || script.equals(otherScript)) {
+                score += SCORE_SCRIPT;
+            }
+            if (region != null && region.equals(otherRegion)) {
+                score += SCORE_REGION;
+            } else if (regionGroup != null && otherRegion != null &&
+                    regionGroup.equals(LikelySubtags.getRegionGroup(language, otherRegion))) {
+                score += SCORE_REGION_GROUP;
+            }
+            if (likelyRegion != null && likelyRegion.equals(otherRegion)) {
+                score += SCORE_LIKELY_REGION;
+            }
+            // Ties keep the first supported locale
+            if (score > bestScore) {
+                bestScore = score;
+                bestIndex = candidate;
+            }
+        }
+        return bestIndex;
+    }
+
+    private static String maximizeRegion(String language, String region) {
+        return region.isEmpty() ? LikelySubtags.getLikelyRegion(language) : region;
+    }
+
+    private static String maximizeScript(String language, String script, String region) {
+        return !script.isEmpty() ? script :
+                LikelySubtags.getLikelyScript(language, region == null ? "" : region);
+    }
+
+    /**
+     * @param locale the locale the app is using
+     * @return the locales resources should fallback to, starting by the given one
+     */
+    public static Locale[] getFallbackLocales(@NonNull Locale locale) {
+        ArrayList<Locale> fallbacks = new ArrayList<>(3);
+        fallbacks.add(locale);
+        String language = locale.getLanguage();
+        if (language.equals("zh")) {
+            // Chinese readers prefer the other script over english
+            fallbacks.add(Locale.SIMPLIFIED_CHINESE.equals(locale) ?
+                    Locale.TRADITIONAL_CHINESE : Locale.SIMPLIFIED_CHINESE);
+        } else {
+            String likelyRegion = LikelySubtags.getLikelyRegion(
+                    LikelySubtags.normalizeLanguage(language));
+            if (likelyRegion != null && !likelyRegion.equals(locale.getCountry())) {
+                fallbacks.add(new Locale(language, likelyRegion));
+            }
+        }
+        if (!fallbacks.contains(Locale.US)) {
+            fallbacks.add(Locale.US);
+        }
+        return fallbacks.toArray(new Locale[0]);
+    }
+}
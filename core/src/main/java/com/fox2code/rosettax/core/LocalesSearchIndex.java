@@ -0,0 +1,152 @@
+package com.fox2code.rosettax.core;
+
+import androidx.annotation.NonNull;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * This class filters supported locales by a search query, matching their native name, english
+ * name or tag regardless of case and accents. Search keys are computed once, and refining a query
+ * only filters the previous results, so typing doesn't allocate per locale.
+ */
+public final class LocalesSearchIndex {
+    private final String[] mKeys;
+    private final int[] mOrder;
+    private final int[] mResults;
+    private int mResultsCount;
+    private String mQuery;
+
+    /**
+     * @param locales the supported locales
+     * @param displayNames the names of the locales in themselves
+     * @param pinned indexes of locales to list first, ex. the system locales, in order
+     */
+    public LocalesSearchIndex(@NonNull Locale[] locales, @NonNull String[] displayNames,
+                              @NonNull int[] pinned) {
+        this(computeKeys(locales, displayNames), pinned);
+    }
+
+    /**
+     * @param keys the search keys of the supported locales, from {@link #computeKeys}, they are
+     *             not copied so they can be shared by indexes
+     * @param pinned indexes of locales to list first, ex. the system locales, in order
+     */
+    public LocalesSearchIndex(@NonNull String[] keys, @NonNull int[] pinned) {
+        this.mKeys = keys;
+        this.mOrder = new int[keys.length];
+        boolean[] isPinned = new boolean[keys.length];
+        int count = 0;
+        for (int index: pinned) {
+            if (index >= 0 && index < keys.length && !isPinned[index]) {
+                isPinned[index] = true;
+                this.mOrder[count++] = index;
+            }
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (!isPinned[i]) {
+                this.mOrder[count++] = i;
+            }
+        }
+        this.mResults = this.mOrder.clone();
+        this.mResultsCount = this.mResults.length;
+        this.mQuery = "";
+    }
+
+    /**
+     * This loads ICU display names data, so it should be done once per supported locales.
+     * @param locales the supported locales
+     * @param displayNames the names of the locales in themselves
+     * @return the search keys of the given locales
+     */
+    @NonNull
+    public static String[] computeKeys(@NonNull Locale[] locales, @NonNull String[] displayNames) {
+        String[] keys = new String[locales.length];
+        for (int i = 0; i < locales.length; i++) {
+            // Separated by a character that can't be typed, so a query can't match across keys
+            keys[i] = normalize(displayNames[i] + '\n' +
+                    locales[i].getDisplayName(Locale.ENGLISH) + '\n' +
+                    locales[i].toLanguageTag());
+        }
+        return keys;
+    }
+
+    /**
+     * @param text the text to normalize
+     * @return the text in lower case, without accents
+     */
+    @NonNull
+    public static String normalize(@NonNull CharSequence text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder builder = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                builder.append(c);
+            }
+        }
+        return builder.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param query the search query, empty to list all the locales
+     * @return the number of matching locales
+     */
+    public int search(@NonNull CharSequence query) {
+        String normalized = normalize(query).trim();
+        if (normalized.equals(mQuery)) {
+            return mResultsCount;
+        }
+        int[] candidates;
+        int candidatesCount;
+        if (normalized.startsWith(mQuery)) {
+            // Refined query, only previous results can match
+            candidates = mResults;
+            candidatesCount = mResultsCount;
+        } else {
+            candidates = mOrder;
+            candidatesCount = mOrder.length;
+        }
+        int count = 0;
+        for (int i = 0; i < candidatesCount; i++) {
+            int index = candidates[i];
+            if (mKeys[index].contains(normalized)) {
+                mResults[count++] = index;
+            }
+        }
+        mResultsCount = count;
+        mQuery = normalized;
+        return count;
+    }
+
+    /**
+     * @return the number of matching locales
+     */
+    public int getResultsCount() {
+        return mResultsCount;
+    }
+
+    /**
+     * @param position the position in the results
+     * @return the index of the locale at the given position
+     */
+    public int getResult(int position) {
+        if (position < 0 || position >= mResultsCount) {
+            throw new IndexOutOfBoundsException("Invalid position: " + position);
+        }
+        return mResults[position];
+    }
+
+    /**
+     * @param index the index of a locale
+     * @return the position of the locale in the results, or -1 if it doesn't match
+     */
+    public int getPosition(int index) {
+        for (int i = 0; i < mResultsCount; i++) {
+            if (mResults[i] == index) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,206 @@
+package com.fox2code.rosettax.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Check the resources.arsc scanner against a minimal table built the way aapt2 lays it out.
+ */
+public class ArscLocalesScannerTest {
+    private static final int STRING_TYPE_ID = 2;
+    private static final int NO_ENTRY = 0xFFFFFFFF;
+
+    @Test
+    public void scan_anyString() {
+        LinkedHashSet<Locale> locales = new ArscLocalesScanner(sampleTable()).scan();
+        assertEquals(new LinkedHashSet<>(Arrays.asList(
+                Locale.FRENCH, new Locale("de", "AT"), new Locale("fil"),
+                Locale.forLanguageTag("sr-Latn"))), locales);
+    }
+
+    @Test
+    public void scan_specificStrings() {
+        assertEquals(new LinkedHashSet<>(Arrays.asList(new Locale("de", "AT"), new Locale("fil"))),
+                new ArscLocalesScanner(sampleTable()).scan(0x7f020001));
+        assertEquals(new LinkedHashSet<>(Arrays.asList(
+                        Locale.FRENCH, Locale.forLanguageTag("sr-Latn"))),
+                new ArscLocalesScanner(sampleTable()).scan(0x7f020000));
+    }
+
+    @Test
+    public void scan_ignoresOtherPackagesAndTypes() {
+        assertTrue(new ArscLocalesScanner(sampleTable()).scan(0x01020001).isEmpty());
+        assertTrue(new ArscLocalesScanner(sampleTable()).scan(0x7f030000).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void scan_truncatedTable() {
+        ByteBuffer table = sampleTable();
+        table.limit(table.limit() / 2);
+        new ArscLocalesScanner(table.slice()).scan();
+    }
+
+    @Test
+    public void fromApk_storedTable() throws IOException {
+        ByteBuffer table = sampleTable();
+        byte[] data = new byte[table.remaining()];
+        table.get(data);
+        CRC32 crc32 = new CRC32();
+        crc32.update(data);
+
+        File apk = File.createTempFile("rosettax", ".apk");
+        try {
+            try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(apk))) {
+                zip.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+                zip.write(new byte[64]);
+                ZipEntry entry = new ZipEntry("resources.arsc");
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(data.length);
+                entry.setCrc(crc32.getValue());
+                zip.putNextEntry(entry);
+                zip.write(data);
+            }
+            ArscLocalesScanner scanner = ArscLocalesScanner.fromApk(apk);
+            assertNotNull(scanner);
+            assertEquals(new ArscLocalesScanner(sampleTable()).scan(), scanner.scan());
+        } finally {
+            assertTrue(apk.delete());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromApk_truncatedCentralDirectory() throws IOException {
+        ByteBuffer zip = ByteBuffer.allocate(4 + 22).order(ByteOrder.LITTLE_ENDIAN);
+        // A central directory claiming an entry but only holding its signature
+        zip.putInt(0x02014b50);
+        zip.putInt(0x06054b50).putShort((short) 0).putShort((short) 0)
+                .putShort((short) 1).putShort((short) 1).putInt(4).putInt(0).putShort((short) 0);
+
+        File apk = File.createTempFile("rosettax", ".apk");
+        try {
+            try (FileOutputStream outputStream = new FileOutputStream(apk)) {
+                outputStream.write(zip.array());
+            }
+            ArscLocalesScanner.fromApk(apk);
+        } finally {
+            assertTrue(apk.delete());
+        }
+    }
+
+    /**
+     * @return a table with a "string" type having two strings, translated in some locales
+     */
+    private static ByteBuffer sampleTable() {
+        ByteArrayOutputStream types = new ByteArrayOutputStream();
+        writeBytes(types, typeChunk(STRING_TYPE_ID, null, null, 0, 0));
+        writeBytes(types, typeChunk(STRING_TYPE_ID, "fr", null, 0, NO_ENTRY));
+        writeBytes(types, typeChunk(STRING_TYPE_ID, "de", "AT", NO_ENTRY, 0));
+        // "fil" is a three letters language, packed in two bytes
+        writeBytes(types, typeChunk(STRING_TYPE_ID, "fil", null, NO_ENTRY, 0));
+        writeBytes(types, typeChunk(STRING_TYPE_ID, "sr", null, 0, NO_ENTRY, "Latn"));
+        // Not a string type, must be ignored
+        writeBytes(types, typeChunk(1, "ja", null, 0, 0));
+        byte[] typeStrings = stringPool("attr", "string");
+        byte[] keyStrings = stringPool("first", "second");
+
+        int packageHeaderSize = 288;
+        ByteBuffer pkg = allocate(packageHeaderSize +
+                typeStrings.length + keyStrings.length + types.size());
+        pkg.putShort((short) 0x0200).putShort((short) packageHeaderSize).putInt(pkg.capacity());
+        pkg.putInt(0x7f);
+        pkg.position(268);
+        pkg.putInt(packageHeaderSize).putInt(2)
+                .putInt(packageHeaderSize + typeStrings.length).putInt(2).putInt(0);
+        pkg.put(typeStrings).put(keyStrings).put(types.toByteArray());
+
+        ByteBuffer table = allocate(12 + pkg.capacity());
+        table.putShort((short) 0x0002).putShort((short) 12).putInt(table.capacity()).putInt(1);
+        table.put(pkg.array());
+        table.flip();
+        return table;
+    }
+
+    private static byte[] typeChunk(int typeId, String language, String country, int... offsets) {
+        return typeChunk(typeId, language, country, offsets[0], offsets[1], null);
+    }
+
+    private static byte[] typeChunk(int typeId, String language, String country,
+                                    int first, int second, String script) {
+        int configSize = 64;
+        int headerSize = 20 + configSize;
+        ByteBuffer chunk = allocate(headerSize + 8);
+        chunk.putShort((short) 0x0201).putShort((short) headerSize).putInt(chunk.capacity());
+        chunk.put((byte) typeId).put((byte) 0).putShort((short) 0);
+        chunk.putInt(2).putInt(chunk.capacity());
+        chunk.putInt(configSize);
+        if (language != null) {
+            chunk.position(28);
+            if (language.length() == 3) {
+                int a = language.charAt(0) - 'a';
+                int b = language.charAt(1) - 'a';
+                int c = language.charAt(2) - 'a';
+                chunk.put((byte) (0x80 | (c << 2) | (b >> 3))).put((byte) ((b << 5) | a));
+            } else {
+                chunk.put(language.getBytes(StandardCharsets.US_ASCII));
+            }
+            if (country != null) {
+                chunk.put(country.getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        if (script != null) {
+            chunk.position(20 + 36);
+            chunk.put(script.getBytes(StandardCharsets.US_ASCII));
+        }
+        chunk.position(headerSize);
+        chunk.putInt(first).putInt(second);
+        return chunk.array();
+    }
+
+    private static byte[] stringPool(String... strings) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int[] offsets = new int[strings.length];
+        for (int i = 0; i < strings.length; i++) {
+            offsets[i] = data.size();
+            byte[] bytes = strings[i].getBytes(StandardCharsets.UTF_8);
+            data.write(strings[i].length());
+            data.write(bytes.length);
+            writeBytes(data, bytes);
+            data.write(0);
+        }
+        while (data.size() % 4 != 0) data.write(0);
+
+        int headerSize = 28;
+        int stringsStart = headerSize + strings.length * 4;
+        ByteBuffer pool = allocate(stringsStart + data.size());
+        pool.putShort((short) 0x0001).putShort((short) headerSize).putInt(pool.capacity());
+        pool.putInt(strings.length).putInt(0).putInt(1 << 8).putInt(stringsStart).putInt(0);
+        for (int offset: offsets) {
+            pool.putInt(offset);
+        }
+        pool.put(data.toByteArray());
+        return pool.array();
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, byte[] bytes) {
+        out.write(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,27 @@
+package com.fox2code.rosettax.core;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class AvailableLocalesIndexTest {
+    @Test
+    public void canonicalize_aliases() {
+        assertEquals(Locale.SIMPLIFIED_CHINESE,
+                AvailableLocalesIndex.canonicalize(new Locale("zh", "CH")));
+        assertEquals(Locale.TRADITIONAL_CHINESE,
+                AvailableLocalesIndex.canonicalize(Locale.forLanguageTag("zh-Hant")));
+        assertEquals(Locale.forLanguageTag("he"),
+                AvailableLocalesIndex.canonicalize(new Locale("iw")));
+    }
+
+    @Test
+    public void find_availableLocales() {
+        AvailableLocalesIndex index = AvailableLocalesIndex.get();
+        assertEquals(Locale.FRENCH, index.find(Locale.FRENCH));
+        assertEquals(Locale.SIMPLIFIED_CHINESE, index.find(new Locale("zh", "CH")));
+        assertNull(index.find(new Locale("xx", "YY")));
+    }
+}
@@ -0,0 +1,58 @@
+package com.fox2code.rosettax.core;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class LocalesMatcherTest {
+    private static final LocalesMatcher MATCHER = new LocalesMatcher(new Locale[] {
+            Locale.US, new Locale("fr", "BE"), Locale.FRENCH, Locale.SIMPLIFIED_CHINESE,
+            new Locale("zh", "HK"), new Locale("es", "ES"), new Locale("es", "419"),
+            new Locale("pt", "BR"), new Locale("iw")});
+
+    @Test
+    public void getBestIndex_exact() {
+        assertEquals(1, MATCHER.getBestIndex(new Locale("fr", "BE")));
+        assertEquals(5, MATCHER.getBestIndex(new Locale("es", "ES")));
+    }
+
+    @Test
+    public void getBestIndex_closest() {
+        assertEquals(2, MATCHER.getBestIndex(Locale.CANADA_FRENCH));
+        assertEquals(0, MATCHER.getBestIndex(Locale.UK));
+        assertEquals(6, MATCHER.getBestIndex(new Locale("es", "MX")));
+        assertEquals(7, MATCHER.getBestIndex(new Locale("pt", "PT")));
+        assertEquals(8, MATCHER.getBestIndex(Locale.forLanguageTag("he-IL")));
+    }
+
+    @Test
+    public void getBestIndex_script() {
+        assertEquals(4, MATCHER.getBestIndex(Locale.TRADITIONAL_CHINESE));
+        assertEquals(4, MATCHER.getBestIndex(Locale.forLanguageTag("zh-Hant")));
+        assertEquals(3, MATCHER.getBestIndex(Locale.forLanguageTag("zh-SG")));
+    }
+
+    @Test
+    public void getBestIndex_unsupportedLanguage() {
+        assertEquals(-1, MATCHER.getBestIndex(Locale.JAPANESE));
+    }
+
+    @Test
+    public void getFallbackLocales() {
+        assertArrayEquals(new Locale[] {Locale.US},
+                LocalesMatcher.getFallbackLocales(Locale.US));
+        assertArrayEquals(new Locale[] {Locale.CANADA_FRENCH, Locale.FRANCE, Locale.US},
+                LocalesMatcher.getFallbackLocales(Locale.CANADA_FRENCH));
+        assertArrayEquals(new Locale[] {Locale.TRADITIONAL_CHINESE,
+                        Locale.SIMPLIFIED_CHINESE, Locale.US},
+                LocalesMatcher.getFallbackLocales(Locale.TRADITIONAL_CHINESE));
+    }
+
+    @Test
+    public void getDisplayName_capitalizeFirstLetterOnly() {
+        assertEquals("Fran\u00e7ais", LocalesMatcher.getDisplayName(Locale.FRENCH));
+        assertEquals("English (United States)", LocalesMatcher.getDisplayName(Locale.US));
+    }
+}
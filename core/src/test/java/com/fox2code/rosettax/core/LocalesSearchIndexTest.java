@@ -0,0 +1,67 @@
+package com.fox2code.rosettax.core;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class LocalesSearchIndexTest {
+    private static final Locale[] LOCALES = {
+            Locale.US, Locale.FRENCH, Locale.GERMAN, new Locale("es", "ES"), new Locale("tr")};
+
+    private static LocalesSearchIndex newIndex(int... pinned) {
+        String[] displayNames = new String[LOCALES.length];
+        for (int i = 0; i < LOCALES.length; i++) {
+            displayNames[i] = LocalesMatcher.getDisplayName(LOCALES[i]);
+        }
+        return new LocalesSearchIndex(LOCALES, displayNames, pinned);
+    }
+
+    @Test
+    public void normalize() {
+        assertEquals("francais", LocalesSearchIndex.normalize("Fran\u00e7ais"));
+        assertEquals("espanol", LocalesSearchIndex.normalize("ESPA\u00d1OL"));
+    }
+
+    @Test
+    public void search_nativeEnglishAndTag() {
+        LocalesSearchIndex index = newIndex();
+        assertEquals(1, index.search("fran\u00e7"));
+        assertEquals(1, index.getResult(0));
+        assertEquals(1, index.search("Spanish"));
+        assertEquals(3, index.getResult(0));
+        assertEquals(1, index.search("de"));
+        assertEquals(2, index.getResult(0));
+    }
+
+    @Test
+    public void search_refineAndWiden() {
+        LocalesSearchIndex index = newIndex();
+        int all = index.search("");
+        assertEquals(LOCALES.length, all);
+        assertTrue(index.search("e") > index.search("en"));
+        assertEquals(1, index.search("engl"));
+        assertEquals(0, index.getResult(0));
+        assertEquals(-1, index.getPosition(1));
+        assertEquals(LOCALES.length, index.search(""));
+    }
+
+    @Test
+    public void search_precomputedKeys() {
+        LocalesSearchIndex index = new LocalesSearchIndex(
+                new LocalesMatcher(LOCALES).getSearchKeys(), new int[0]);
+        assertEquals(1, index.search("Spanish"));
+        assertEquals(3, index.getResult(0));
+    }
+
+    @Test
+    public void pinnedFirst() {
+        LocalesSearchIndex index = newIndex(4, 2, 4);
+        assertEquals(LOCALES.length, index.search(""));
+        assertEquals(4, index.getResult(0));
+        assertEquals(2, index.getResult(1));
+        assertEquals(0, index.getResult(2));
+        assertEquals(1, index.getPosition(2));
+    }
+}
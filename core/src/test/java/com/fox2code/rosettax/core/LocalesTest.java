@@ -0,0 +1,35 @@
+package com.fox2code.rosettax.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class LocalesTest {
+    @Test
+    public void parse() {
+        assertEquals(Locale.FRENCH, Locales.parse("fr"));
+        assertEquals(new Locale("pt", "BR"), Locales.parse("pt-BR"));
+        assertEquals(new Locale("pt", "BR"), Locales.parse("pt-rBR"));
+    }
+
+    @Test
+    public void validate() {
+        ArrayList<Locale> discarded = new ArrayList<>();
+        assertEquals(Arrays.asList(Locale.US, Locale.SIMPLIFIED_CHINESE), new ArrayList<>(
+                Locales.validate(Arrays.asList(Locale.US, new Locale("en", "XA"),
+                        new Locale("zh", "CH"), new Locale("xx", "YY")), discarded)));
+        assertEquals(Arrays.asList(new Locale("en", "XA"), new Locale("xx", "YY")), discarded);
+    }
+
+    @Test
+    public void validate_keepsFirstOfDuplicates() {
+        assertEquals(Collections.singletonList(Locale.SIMPLIFIED_CHINESE), new ArrayList<>(
+                Locales.validate(Arrays.asList(Locale.SIMPLIFIED_CHINESE,
+                        new Locale("zh", "CH")), null)));
+    }
+}
@@ -0,0 +1,135 @@
+package com.fox2code.rosettax;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+import java.util.WeakHashMap;
+
+/**
+ * This class replaces the {@link LanguageSwitcher} creation at startup in deferred mode, it only
+ * applies the stored locale to created activities. The library is fully initialized the first time
+ * it is really used, or when the stored locale can't be read from the fast path.
+ *
+ * The stored locale is read from the storage set with
+ * {@link LanguageSwitcher#setDefaultStorage(LocalesStorage)}, or from the library file storage.
+ */
+final class DeferredInitializer implements Application.ActivityLifecycleCallbacks {
+    private static volatile DeferredInitializer sInstance;
+
+    private final Application mApplication;
+    private final Locale mFirstLaunchLocale;
+    private final Locale mBaseLocale;
+    private Locale mPreferredLocale;
+    /**
+     * Live activities, handed to the library once initialized so they can be recreated
+     */
+    private final WeakHashMap<Activity, Boolean> mActivities = new WeakHashMap<>();
+
+    private DeferredInitializer(Application application, Locale firstLaunchLocale,
+                                Locale baseLocale) {
+        this.mApplication = application;
+        this.mFirstLaunchLocale = firstLaunchLocale;
+        this.mBaseLocale = baseLocale;
+    }
+
+    /**
+     * Defers the library initialization until an activity is created
+     */
+    static void install(@NonNull Application application, Locale firstLaunchLocale,
+                        Locale baseLocale) {
+        DeferredInitializer initializer =
+                new DeferredInitializer(application, firstLaunchLocale, baseLocale);
+        sInstance = initializer;
+        application.registerActivityLifecycleCallbacks(initializer);
+    }
+
+    /**
+     * Fully initializes the library if it has been deferred and is not initialized yet
+     */
+    static void ensureInitialized() {
+        DeferredInitializer initializer = sInstance;
+        if (initializer != null) {
+            initializer.initialize();
+        }
+    }
+
+    private synchronized void initialize() {
+        if (sInstance != this) {
+            return;
+        }
+        sInstance = null;
+        mApplication.unregisterActivityLifecycleCallbacks(this);
+        if (LocalesUtils.getLocalesPreferenceManager() == null) {
+            new LanguageSwitcher(mApplication, mFirstLaunchLocale, mBaseLocale);
+        }
+        synchronized (mActivities) {
+            LocalesUtils.getLocalesPreferenceManager().trackActivities(mActivities.keySet());
+            mActivities.clear();
+        }
+    }
+
+    @Override
+    public void onActivityCreated(@NonNull Activity activity, @Nullable Bundle savedInstanceState) {
+        synchronized (mActivities) {
+            mActivities.put(activity, Boolean.TRUE);
+        }
+        if (LocalesUtils.getLocalesPreferenceManager() != null) {
+            // Initialized by the app, its own callbacks take care of activities from now on
+            this.initialize();
+            return;
+        }
+        if (PlatformLocales.isAvailable(mApplication)) {
+            // The platform applies the locale, only the preferences migration is left
+            this.initialize();
+            return;
+        }
+        if (mPreferredLocale == null) {
+            LocalesStorage storage = LocalesUtils.getDefaultStorage();
+            if (storage == null) {
+                // Read under the process lock if shared
+                storage = new FileLocalesStorage(mApplication, mApplication.getResources()
+                        .getBoolean(R.bool.rosetta_multi_process));
+            }
+            String[] tags = storage.load();
+            if (tags == null || tags.length < 3) {
+                // First launch, or locales still stored in the default preferences
+                this.initialize();
+                LocalesUtils.setAppLocale(activity, LocalesUtils.getLocalesPreferenceManager()
+                        .getPreferredLocale(LocalesPreferenceManager.USER_PREFERRED_LOCALE));
+                return;
+            }
+            mPreferredLocale = Locale.forLanguageTag(tags[2]);
+            // Formatters use the default locale, like once the library is initialized
+            Locale.setDefault(mPreferredLocale);
+            LocalesUtils.applyLocale(mApplication.getResources(), mPreferredLocale);
+        }
+        LocalesUtils.applyLocale(activity.getResources(), mPreferredLocale);
+    }
+
+    @Override
+    public void onActivityStarted(@NonNull Activity activity) {}
+
+    @Override
+    public void onActivityResumed(@NonNull Activity activity) {}
+
+    @Override
+    public void onActivityPaused(@NonNull Activity activity) {}
+
+    @Override
+    public void onActivityStopped(@NonNull Activity activity) {}
+
+    @Override
+    public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {}
+
+    @Override
+    public void onActivityDestroyed(@NonNull Activity activity) {
+        synchronized (mActivities) {
+            mActivities.remove(activity);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.fox2code.rosettax;
+
+import android.content.Context;
+import android.os.FileObserver;
+import android.util.AtomicFile;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class is the default locales storage, locales are kept in a tiny private file so reading
+ * them at startup doesn't parse all the app preferences. Writes are done on a dedicated background
+ * thread, so flushing never waits for locales detection, and coalesced when the locale changes
+ * several times in a row.
+ *
+ * In multi-process mode, the file is read and written under a file lock shared by all the app
+ * processes, and other processes are notified of changes by watching the file.
+ */
+final class FileLocalesStorage implements LocalesStorage {
+    private static final String FILE_NAME = "rosettax_locales";
+    private static final int MAGIC = 0x52535458;
+    private static final int VERSION = 1;
+
+    private final File mDirectory;
+    private final AtomicFile mFile;
+    private final File mLockFile;
+    private final ReentrantLock mThreadLock;
+    private final AtomicReference<String[]> mPendingTags;
+    private final Logger mLogger;
+    private final ExecutorService mExecutor;
+    private volatile boolean mWriteSucceeded = true;
+    private FileObserver mObserver;
+
+    /**
+     * @param multiProcess true if the locales are shared with other processes of the app
+     */
+    FileLocalesStorage(Context context, boolean multiProcess) {
+        this.mDirectory = context.getFilesDir();
+        this.mFile = new AtomicFile(new File(this.mDirectory, FILE_NAME));
+        this.mLockFile = multiProcess ? new File(this.mDirectory, FILE_NAME + ".lock") : null;
+        this.mThreadLock = new ReentrantLock();
+        this.mPendingTags = new AtomicReference<>();
+        this.mLogger = new Logger(this.getClass().getSimpleName());
+        this.mExecutor = LocalesUtils.BackgroundHolder.newExecutor("RosettaX-storage");
+    }
+
+    /**
+     * Starts watching the locales written by other processes, only used in multi-process mode
+     * @param onChange called on a background thread once the locales file changed
+     */
+    synchronized void startWatching(@NonNull Runnable onChange) {
+        if (mObserver != null) {
+            return;
+        }
+        // AtomicFile either renames a new file over the old one, or rewrites it in place
+        mObserver = new FileObserver(mDirectory.getPath(),
+                FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO) {
+            @Override
+            public void onEvent(int event, String path) {
+                if (FILE_NAME.equals(path)) {
+                    onChange.run();
+                }
+            }
+        };
+        mObserver.startWatching();
+    }
+
+    @Nullable
+    @Override
+    public String[] load() {
+        // Locales waiting to be written are more recent than the file ones
+        String[] pendingTags = mPendingTags.get();
+        if (pendingTags != null) {
+            return pendingTags.clone();
+        }
+        try (ProcessLock ignored = this.lock(true)) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(mFile.readFully()));
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                mLogger.warn("Unknown locales file format, ignoring it.");
+                return null;
+            }
+            String[] tags = new String[in.readUnsignedByte()];
+            for (int i = 0; i < tags.length; i++) {
+                tags[i] = in.readUTF();
+            }
+            return tags;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            mLogger.warn("Failed to read locales file: " + e);
+            return null;
+        }
+    }
+
+    @Override
+    public void store(@NonNull String[] tags) {
+        // Only the latest locales are written if the previous write didn't start yet
+        if (mPendingTags.getAndSet(tags.clone()) == null) {
+            mExecutor.execute(this::writePending);
+        }
+    }
+
+    @Override
+    public boolean flush() {
+        try {
+            // The executor runs tasks in order, so pending writes are done once this one is
+            return mExecutor.submit(() -> {
+                this.writePending();
+                return mWriteSucceeded;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    private void writePending() {
+        String[] tags = mPendingTags.getAndSet(null);
+        if (tags == null) {
+            return;
+        }
+        FileOutputStream stream = null;
+        try (ProcessLock ignored = this.lock(false)) {
+            stream = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(tags.length);
+            for (String tag: tags) {
+                out.writeUTF(tag);
+            }
+            out.flush();
+            mFile.finishWrite(stream);
+            mWriteSucceeded = true;
+        } catch (IOException e) {
+            if (stream != null) {
+                mFile.failWrite(stream);
+            }
+            mWriteSucceeded = false;
+            mLogger.error("Failed to write locales file: " + e);
+        }
+    }
+
+    /**
+     * @param shared true to only prevent other processes from writing
+     * @return the lock of the locales file, or null if not in multi-process mode
+     */
+    @Nullable
+    private ProcessLock lock(boolean shared) throws IOException {
+        return mLockFile == null ? null : new ProcessLock(shared);
+    }
+
+    /**
+     * File locks are held by the whole process, so threads of this process also wait for each
+     * other while one of them holds the file lock
+     */
+    private final class ProcessLock implements Closeable {
+        private final FileChannel mChannel;
+
+        ProcessLock(boolean shared) throws IOException {
+            mThreadLock.lock();
+            FileChannel channel = null;
+            try {
+                channel = new RandomAccessFile(mLockFile, "rw").getChannel();
+                channel.lock(0, Long.MAX_VALUE, shared);
+            } catch (IOException | RuntimeException e) {
+                if (channel != null) {
+                    channel.close();
+                }
+                mThreadLock.unlock();
+                throw e;
+            }
+            this.mChannel = channel;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // Closing the channel releases the file lock
+                mChannel.close();
+            } finally {
+                mThreadLock.unlock();
+            }
+        }
+    }
+}
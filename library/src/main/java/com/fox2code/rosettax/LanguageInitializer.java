@@ -1,5 +1,6 @@
 package com.fox2code.rosettax;
 
+import android.app.Application;
 import android.content.Context;
 
 import androidx.annotation.NonNull;
@@ -15,8 +16,15 @@ public final class LanguageInitializer implements Initializer<Boolean> {
     public Boolean create(@NonNull Context context) {
         // Initialize only if not already initialized
         if (LocalesUtils.getLocalesPreferenceManager() == null) {
-            new LanguageSwitcher(context, context.getApplicationContext()
-                    .getResources().getConfiguration().locale, Locale.US);
+            Context application = context.getApplicationContext();
+            Locale firstLaunchLocale = application.getResources().getConfiguration().locale;
+            if (application.getResources().getBoolean(R.bool.rosetta_deferred_init)) {
+                // Only the stored locale is applied to activities until the library is used
+                DeferredInitializer.install(
+                        (Application) application, firstLaunchLocale, Locale.US);
+            } else {
+                new LanguageSwitcher(context, firstLaunchLocale, Locale.US);
+            }
         }
         return Boolean.TRUE;
     }
@@ -4,6 +4,7 @@ import android.app.Activity;
 import android.app.Application;
 import android.content.Context;
 import android.content.ContextWrapper;
+import android.content.res.Resources;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -16,6 +17,7 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Locale;
+import java.util.concurrent.Future;
 
 /**
  * This class is the application door to this Library. It handles the ongoing and outgoing requests,
@@ -26,6 +28,34 @@ import java.util.Locale;
  * Created by ahmedjazzar on 1/16/16.
  */
 public class LanguageSwitcher {
+    /**
+     * Detect locales by creating a Resources object for each locale of the app assets
+     */
+    public static final int DETECTION_BACKEND_RESOURCES = LocalesDetector.BACKEND_RESOURCES;
+    /**
+     * Detect locales by reading the app resources.arsc tables directly
+     */
+    public static final int DETECTION_BACKEND_ARSC = LocalesDetector.BACKEND_ARSC;
+
+    /**
+     * Restart the app task after the locale changed, the default
+     */
+    public static final int REFRESH_STRATEGY_RELAUNCH = LocalesUtils.REFRESH_STRATEGY_RELAUNCH;
+    /**
+     * Recreate the current activity after the locale changed, other activities are recreated
+     * when they are resumed
+     */
+    public static final int REFRESH_STRATEGY_RECREATE = LocalesUtils.REFRESH_STRATEGY_RECREATE;
+
+    /**
+     * A simple list of the supported locales, the default
+     */
+    public static final int DIALOG_STYLE_LIST = 0;
+    /**
+     * A searchable list, with the system locales first, for apps supporting a lot of locales
+     */
+    public static final int DIALOG_STYLE_SEARCHABLE = 1;
+
     private final Context mContext;
     private final String TAG = this.getClass().getSimpleName();
 
@@ -67,24 +97,101 @@ public class LanguageSwitcher {
      * @param baseLocale the locale that used in the main xml strings file (most likely 'en')
      */
     public LanguageSwitcher(@NonNull Context context, Locale firstLaunchLocale, Locale baseLocale) {
+        this(context, firstLaunchLocale, baseLocale, null);
+    }
+
+    /**
+     * Same as {@link #LanguageSwitcher(Context, Locale, Locale)} but the locales are kept in the
+     * given storage, the storage is only used by the first created instance. The startup
+     * initializer creates that instance before Application.onCreate, so either use
+     * {@link #setDefaultStorage(LocalesStorage)} or remove the initializer from the manifest.
+     * @param context the context of the dealer
+     * @param firstLaunchLocale the locale that owner wanna use at its first launch
+     * @param baseLocale the locale that used in the main xml strings file (most likely 'en')
+     * @param storage where to keep the locales, null to use the default storage, only the
+     *                library file storage is shared between processes in multi-process mode
+     */
+    public LanguageSwitcher(@NonNull Context context, Locale firstLaunchLocale, Locale baseLocale,
+                            @Nullable LocalesStorage storage) {
         LocalesPreferenceManager preferenceManager = LocalesUtils.getLocalesPreferenceManager();
         this.mContext = context.getApplicationContext();
 
 
+        if (storage == null) {
+            storage = LocalesUtils.getDefaultStorage();
+        } else if (preferenceManager != null && storage != preferenceManager.getStorage()) {
+            new Logger(TAG).warn("The library is already initialized, the given storage is " +
+                    "ignored, use LanguageSwitcher.setDefaultStorage instead.");
+        }
+
         if (preferenceManager == null) {
+            boolean multiProcess = this.mContext.getResources()
+                    .getBoolean(R.bool.rosetta_multi_process);
+            FileLocalesStorage fileStorage = null;
+            if (storage == null) {
+                storage = fileStorage = new FileLocalesStorage(this.mContext, multiProcess);
+            }
             preferenceManager = new LocalesPreferenceManager(
-                    this.mContext, firstLaunchLocale, baseLocale);
+                    this.mContext, storage, firstLaunchLocale, baseLocale);
+            if (multiProcess && fileStorage != null) {
+                fileStorage.startWatching(preferenceManager::invalidate);
+            }
             ((Application) this.mContext.getApplicationContext())
                     .registerActivityLifecycleCallbacks(preferenceManager);
+            LocalizedResourcesCache resourcesCache = new LocalizedResourcesCache(this.mContext);
+            this.mContext.registerComponentCallbacks(resourcesCache);
+            this.mContext.registerComponentCallbacks(new LocalesUtils.ConfigurationCallbacks());
 
-            // initializing Locales utils needed objects (detector, preferences)
+            // initializing Locales utils needed objects (detector, resources, preferences)
             LocalesUtils.setDetector(new LocalesDetector(this.mContext));
+            LocalesUtils.setResourcesCache(resourcesCache);
             LocalesUtils.setLocalesPreferenceManager(preferenceManager);
+
+            if (PlatformLocales.isAvailable(this.mContext)) {
+                LocalesUtils.setUsePlatformLocales(true);
+                PlatformLocales.migrate(this.mContext, preferenceManager);
+            }
+        }
+
+        if (!LocalesUtils.isUsingPlatformLocales()) {
+            // Setting app locale to match the user preferred one
+            LocalesUtils.setAppLocale(mContext, preferenceManager
+                    .getPreferredLocale(LocalesPreferenceManager.USER_PREFERRED_LOCALE));
         }
+    }
 
-        // Setting app locale to match the user preferred one
-        LocalesUtils.setAppLocale(mContext, preferenceManager
-                .getPreferredLocale(LocalesPreferenceManager.USER_PREFERRED_LOCALE));
+    /**
+     * Wraps a base context so its resources are in the preferred locale, meant to be used from
+     * attachBaseContext of activities, services, receivers, ..
+     * <pre>
+     * protected void attachBaseContext(Context base) {
+     *     super.attachBaseContext(LanguageSwitcher.wrapContext(base));
+     * }
+     * </pre>
+     * Wrapping the same base context again returns the same context if the locale didn't change.
+     * In deferred mode, this initializes the library.
+     * @param base the base context
+     * @return a localized context, or the base one if the library is not initialized yet
+     */
+    @NonNull
+    public static Context wrapContext(@NonNull Context base) {
+        return LocalesUtils.wrapContext(base);
+    }
+
+    /**
+     * Sets the storage used by the library, must be called before the startup initializer runs,
+     * ex. from Application.attachBaseContext
+     * <pre>
+     * protected void attachBaseContext(Context base) {
+     *     super.attachBaseContext(base);
+     *     LanguageSwitcher.setDefaultStorage(new MyLocalesStorage(this));
+     * }
+     * </pre>
+     * @param storage where to keep the locales
+     * @throws IllegalStateException if the library is already initialized
+     */
+    public static void setDefaultStorage(@NonNull LocalesStorage storage) {
+        LocalesUtils.setDefaultStorage(storage);
     }
 
     /**
@@ -94,11 +201,40 @@ public class LanguageSwitcher {
         showChangeLanguageDialogImpl(activity, TAG);
     }
 
+    /**
+     * Responsible for displaying Change dialog fragment
+     * @param style either {@link #DIALOG_STYLE_LIST} or {@link #DIALOG_STYLE_SEARCHABLE}
+     */
+    public void showChangeLanguageDialog(FragmentActivity activity, int style)  {
+        showChangeLanguageDialogImpl(activity, TAG, style);
+    }
+
     /**
      * Responsible for displaying Change dialog fragment
      */
     public static void showChangeLanguageDialogImpl(FragmentActivity activity, String tag)  {
-        new LanguagesListDialogFragment().show(activity.getSupportFragmentManager(), tag);
+        showChangeLanguageDialogImpl(activity, tag, DIALOG_STYLE_LIST);
+    }
+
+    /**
+     * Responsible for displaying Change dialog fragment
+     * @param style either {@link #DIALOG_STYLE_LIST} or {@link #DIALOG_STYLE_SEARCHABLE}
+     */
+    public static void showChangeLanguageDialogImpl(
+            FragmentActivity activity, String tag, int style)  {
+        DeferredInitializer.ensureInitialized();
+        LanguagesListDialogFragment fragment;
+        switch (style) {
+            case DIALOG_STYLE_LIST:
+                fragment = new LanguagesListDialogFragment();
+                break;
+            case DIALOG_STYLE_SEARCHABLE:
+                fragment = new SearchableLanguagesDialogFragment();
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid dialog style: " + style);
+        }
+        fragment.show(activity.getSupportFragmentManager(), tag);
     }
 
     /**
@@ -147,13 +283,23 @@ public class LanguageSwitcher {
     }
 
     /**
-     * Sets the supported locales after fetching there availability using fetchAvailableLocales
-     * method
+     * Sets the supported locales from the table generated by rosettax-locales.gradle, or after
+     * fetching there availability using fetchAvailableLocales method if the app doesn't use it
      * @param stringId the string that this library gonna use to detect current app available
      *                 locales
      */
     public void setSupportedLocales(@StringRes int stringId)    {
-        this.setSupportedLocales(this.fetchAvailableLocales(stringId));
+        this.setSupportedLocales(LocalesUtils.fetchSupportedLocales(stringId));
+    }
+
+    /**
+     * Sets the supported locales from the table generated by rosettax-locales.gradle, or after
+     * fetching there availability using fetchAvailableLocales method if the app doesn't use it
+     * @param stringIds the strings that this library gonna use to detect current app available
+     *                  locales, using multiple strings makes the detection more accurate
+     */
+    public void setSupportedLocales(@StringRes int... stringIds)    {
+        this.setSupportedLocales(LocalesUtils.fetchSupportedLocales(stringIds));
     }
 
     /**
@@ -166,6 +312,108 @@ public class LanguageSwitcher {
         return LocalesUtils.fetchAvailableLocales(stringId);
     }
 
+    /**
+     * Fetching the application available locales inside the resources folder dynamically
+     * @param stringIds the strings that this library gonna use to detect current app available
+     *                  locales, using multiple strings makes the detection more accurate
+     * @return a set of detected application locales
+     */
+    public HashSet<Locale> fetchAvailableLocales(@StringRes int... stringIds) {
+        return LocalesUtils.fetchAvailableLocales(stringIds);
+    }
+
+    /**
+     * Select how locales are detected at runtime by {@link #fetchAvailableLocales(int...)}
+     * @param backend either {@link #DETECTION_BACKEND_RESOURCES} or
+     *                {@link #DETECTION_BACKEND_ARSC}
+     */
+    public void setDetectionBackend(int backend) {
+        LocalesUtils.setDetectionBackend(backend);
+    }
+
+    /**
+     * Same as {@link #setSupportedLocales(int...)} but the detection is done on a background thread,
+     * the previously supported locales are still used until the detection completes.
+     * @param callback called on the main thread once the supported locales are set
+     * @param stringIds the strings that this library gonna use to detect current app available
+     *                  locales
+     * @return a future that can be used to wait for, or cancel the detection
+     */
+    public Future<HashSet<Locale>> setSupportedLocalesAsync(
+            @Nullable LocalesCallback callback, @StringRes int... stringIds) {
+        return LocalesUtils.fetchAvailableLocalesAsync(stringIds, true, callback);
+    }
+
+    /**
+     * Same as {@link #fetchAvailableLocales(int...)} but the detection is done on a background thread
+     * @param callback called on the main thread with the detected locales
+     * @param stringIds the strings that this library gonna use to detect current app available
+     *                  locales
+     * @return a future that can be used to wait for, or cancel the detection
+     */
+    public Future<HashSet<Locale>> fetchAvailableLocalesAsync(
+            @Nullable LocalesCallback callback, @StringRes int... stringIds) {
+        return LocalesUtils.fetchAvailableLocalesAsync(stringIds, false, callback);
+    }
+
+    /**
+     * Select how activities are refreshed after the locale changed, ignored by activities
+     * implementing {@link LanguageActivity} and when using the platform per-app languages
+     * @param refreshStrategy either {@link #REFRESH_STRATEGY_RELAUNCH} or
+     *                        {@link #REFRESH_STRATEGY_RECREATE}
+     */
+    public void setRefreshStrategy(int refreshStrategy) {
+        LocalesUtils.setRefreshStrategy(refreshStrategy);
+    }
+
+    /**
+     * Get the application resources in a specific locale, resources are cached so calling this
+     * again with the same locale is cheap
+     * @param locale the wanted locale
+     * @return the localized resources
+     */
+    @NonNull
+    public Resources getResourcesInLocale(@NonNull Locale locale) {
+        return LocalesUtils.getResourcesInLocale(locale);
+    }
+
+    /**
+     * Get several strings in a specific locale at once, they are all resolved against the same
+     * localized resources
+     * @param locale the wanted locale
+     * @param stringIds the strings to get
+     * @return the localized strings, in the same order as the given ids
+     */
+    @NonNull
+    public String[] getStringsInLocale(@NonNull Locale locale, @StringRes int... stringIds) {
+        return LocalesUtils.getInSpecificLocale(locale, stringIds);
+    }
+
+    /**
+     * Sets how many localized resources are cached, they are also released on configuration
+     * changes and low memory
+     * @param maxSize the maximum number of localized resources to keep
+     */
+    public void setResourcesCacheSize(int maxSize) {
+        LocalesUtils.setResourcesCacheSize(maxSize);
+    }
+
+    /**
+     * Applying the locale to activities updates their resources configuration only when needed
+     * @return the number of resources configuration updates done
+     */
+    public int getConfigurationUpdates() {
+        return LocalesUtils.getConfigurationUpdates();
+    }
+
+    /**
+     * @return the number of resources configuration updates skipped as the locale was already
+     *         applied
+     */
+    public int getSkippedConfigurationUpdates() {
+        return LocalesUtils.getSkippedConfigurationUpdates();
+    }
+
     /**
      * Setting the application locale manually
      * @param newLocale the locale in a string format
@@ -188,6 +436,25 @@ public class LanguageSwitcher {
         return LocalesUtils.setLocale(newLocale, activity);
     }
 
+    /**
+     * Locale changes are written to the storage asynchronously, call this to wait for them, ex. before
+     * killing the process
+     *
+     * @return true if the preferences have been written successfully
+     */
+    public boolean flushPreferences() {
+        return LocalesUtils.flushPreferences();
+    }
+
+    /**
+     * Enabled on Android 13 and above when the app sets the rosetta_use_platform_locales bool
+     * resource to true
+     * @return true if the app locale is stored and applied by the platform per-app languages
+     */
+    public boolean isUsingPlatformLocales() {
+        return LocalesUtils.isUsingPlatformLocales();
+    }
+
     /**
      * @return the first launch locale
      */
@@ -201,6 +468,7 @@ public class LanguageSwitcher {
      */
     @NonNull
     public Locale getCurrentLocale()  {
+        LocalesUtils.syncPreferredLocale(this.mContext);
         return LocalesUtils.getCurrentLocale(this.mContext);
     }
 
@@ -213,4 +481,15 @@ public class LanguageSwitcher {
     public boolean switchToLaunch(@NonNull Activity activity)  {
         return setLocale(getLaunchLocale(), activity);
     }
+
+    /**
+     * Receive the result of an asynchronous locales detection
+     */
+    public interface LocalesCallback {
+        /**
+         * Called on the main thread, not called if the detection has been cancelled
+         * @param locales the detected locales
+         */
+        void onLocalesDetected(@NonNull HashSet<Locale> locales);
+    }
 }
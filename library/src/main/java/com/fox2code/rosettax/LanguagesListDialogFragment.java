@@ -1,9 +1,13 @@
 package com.fox2code.rosettax;
 
+import android.app.Activity;
 import android.app.Dialog;
 import android.content.DialogInterface;
+import android.content.res.Resources;
 import android.os.Bundle;
 import android.widget.Button;
+import android.widget.ListAdapter;
+import android.widget.ListView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
@@ -14,8 +18,10 @@ import androidx.fragment.app.FragmentActivity;
 
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
-import java.util.ArrayList;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * This fragment is responsible for displaying the supported locales and performing any necessary
@@ -27,11 +33,15 @@ import java.util.Locale;
 public class LanguagesListDialogFragment extends DialogFragment implements DialogInterface {
     private static final String TAG = LanguagesListDialogFragment.class.getName();
 
-    private final int DIALOG_TITLE_ID = LocalesUtils.getIdOfTranslation("language");
-    private final int DIALOG_POSITIVE_ID = LocalesUtils.getIdOfTranslation("ok");
-    private final int DIALOG_NEGATIVE_ID = LocalesUtils.getIdOfTranslation("cancel");
+    private static final int DIALOG_TITLE_ID = R.string.rosetta_language;
+    private static final int DIALOG_POSITIVE_ID = android.R.string.ok;
+    private static final int DIALOG_NEGATIVE_ID = android.R.string.cancel;
 
     private int mSelectedLanguage = -1;
+    private final ConcurrentHashMap<Locale, String[]> mPreviews = new ConcurrentHashMap<>();
+    private Future<?> mPendingPreview;
+    private int mPreviewGeneration;
+    private volatile boolean mPrefetchCancelled;
     private final Logger mLogger;
 
     public LanguagesListDialogFragment()  {
@@ -44,6 +54,23 @@ public class LanguagesListDialogFragment extends DialogFragment implements Dialo
     @NonNull
     @Override
     public Dialog onCreateDialog(Bundle savedInstanceState) {
+        DeferredInitializer.ensureInitialized();
+        mLogger.debug("Building DialogFragment.");
+
+        AlertDialog.Builder builder = newDialogBuilder()
+                .setSingleChoiceItems(
+                        getLanguages(),
+                        getCurrentLocaleIndex(),
+                        (dialogInterface, which) -> onLanguageSelectedLocalized(which));
+
+        mLogger.verbose("DialogFragment built.");
+        return builder.create();
+    }
+
+    /**
+     * @return a dialog builder with the title and buttons set
+     */
+    protected AlertDialog.Builder newDialogBuilder() {
         FragmentActivity fragmentActivity = requireActivity();
         AlertDialog.Builder builder;
         try { // Use MaterialAlertDialogBuilder if available
@@ -51,22 +78,13 @@ public class LanguagesListDialogFragment extends DialogFragment implements Dialo
         } catch (Throwable t) {
             builder = new AlertDialog.Builder(fragmentActivity);
         }
-        mLogger.debug("Building DialogFragment.");
-
-        builder.setTitle(getString(DIALOG_TITLE_ID))
-                .setSingleChoiceItems(
-                        getLanguages(),
-                        getCurrentLocaleIndex(),
-                        (dialogInterface, which) -> onLanguageSelectedLocalized(which))
+        return builder.setTitle(getString(DIALOG_TITLE_ID))
                 .setPositiveButton(
                         getString(DIALOG_POSITIVE_ID).toUpperCase(),
                         (dialogInterface, which) -> onPositiveClick())
                 .setNegativeButton(
                         getString(DIALOG_NEGATIVE_ID).toUpperCase(),
                         (dialogInterface, which) -> onNegativeClick());
-
-        mLogger.verbose("DialogFragment built.");
-        return builder.create();
     }
 
     /**
@@ -113,29 +131,118 @@ public class LanguagesListDialogFragment extends DialogFragment implements Dialo
         // update the selected locale
         mSelectedLanguage = which;
         Locale locale = LocalesUtils.getLocaleFromIndex(mSelectedLanguage);
-        AlertDialog dialog = (AlertDialog) getDialog();
-        FragmentActivity activity = getActivity();
 
         mLogger.debug("Displaying dialog main strings in the selected " +
                 "locale");
 
-        assert activity != null;
-        String LocalizedTitle = LocalesUtils.getInSpecificLocale(activity, locale, DIALOG_TITLE_ID);
+        // Only the latest selection is displayed, previous ones and the prefetch are cancelled
+        int generation = ++mPreviewGeneration;
+        mPrefetchCancelled = true;
+        if (mPendingPreview != null) {
+            mPendingPreview.cancel(false);
+            mPendingPreview = null;
+        }
+        String[] localized = mPreviews.get(locale);
+        if (localized != null) {
+            this.displayPreview(localized, titleView, positiveButton, negativeButton);
+            return;
+        }
+        // Creating localized resources is slow, don't do it on the main thread
+        mPendingPreview = PreviewHolder.EXECUTOR.submit(() -> {
+            String[] strings = this.resolvePreview(locale);
+            LocalesUtils.BackgroundHolder.MAIN_HANDLER.post(() -> {
+                if (generation == mPreviewGeneration && getDialog() != null) {
+                    this.displayPreview(strings, titleView, positiveButton, negativeButton);
+                }
+            });
+        });
+    }
+
+    private void displayPreview(String[] localized, @Nullable TextView titleView,
+                                Button positiveButton, Button negativeButton) {
         if(titleView == null)   {
             // Display dialog title in the selected locale
+            AlertDialog dialog = (AlertDialog) getDialog();
             assert dialog != null;
-            dialog.setTitle(LocalizedTitle);
+            dialog.setTitle(localized[0]);
         } else  {
-            titleView.setText(LocalizedTitle);
+            titleView.setText(localized[0]);
         }
 
         // Display positive button text in the selected locale
-        positiveButton.setText(LocalesUtils.getInSpecificLocale(
-                activity, locale, DIALOG_POSITIVE_ID));
+        positiveButton.setText(localized[1]);
 
         // Display negative button text in the selected locale
-        negativeButton.setText(LocalesUtils.getInSpecificLocale(
-                activity, locale, DIALOG_NEGATIVE_ID));
+        negativeButton.setText(localized[2]);
+    }
+
+    /**
+     * Can be called from any thread, the resources are not kept in the shared resources cache as
+     * only three strings are needed from them
+     * @return the title, positive and negative strings in the given locale
+     */
+    private String[] resolvePreview(Locale locale) {
+        String[] localized = mPreviews.get(locale);
+        if (localized == null) {
+            Resources resources = LocalesUtils.createResourcesInLocale(locale);
+            localized = new String[] {resources.getString(DIALOG_TITLE_ID),
+                    resources.getString(DIALOG_POSITIVE_ID),
+                    resources.getString(DIALOG_NEGATIVE_ID)};
+            mPreviews.put(locale, localized);
+        }
+        return localized;
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        mPrefetchCancelled = false;
+        ListView listView = this.getLocalesListView();
+        if (listView != null) {
+            // Visible rows are only known once laid out
+            listView.post(() -> this.prefetchPreviews(listView));
+        }
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        mPrefetchCancelled = true;
+    }
+
+    /**
+     * Resolves the strings of the visible locales in the background, so selecting them displays
+     * the preview immediately. The prefetch stops as soon as a locale is selected, so the
+     * selection preview doesn't wait for it.
+     */
+    private void prefetchPreviews(ListView listView) {
+        ListAdapter adapter = listView.getAdapter();
+        int first = listView.getFirstVisiblePosition();
+        int last = listView.getLastVisiblePosition();
+        if (adapter == null || first < 0 || last < first) {
+            return;
+        }
+        Locale[] locales = new Locale[last - first + 1];
+        for (int i = 0; i < locales.length; i++) {
+            locales[i] = LocalesUtils.getLocaleFromIndex((int) adapter.getItemId(first + i));
+        }
+        PreviewHolder.EXECUTOR.execute(() -> {
+            for (Locale locale: locales) {
+                if (mPrefetchCancelled) {
+                    return;
+                }
+                this.resolvePreview(locale);
+            }
+        });
+    }
+
+    /**
+     * @return the list view of the locales, row ids must be the locales indexes
+     */
+    @Nullable
+    protected ListView getLocalesListView() {
+        AlertDialog dialog = (AlertDialog) getDialog();
+        return dialog == null ? null : dialog.getListView();
     }
 
     /**
@@ -147,11 +254,12 @@ public class LanguagesListDialogFragment extends DialogFragment implements Dialo
                 mSelectedLanguage != LocalesUtils.getCurrentLocaleIndex()) {
 
             // Try changing the locale
-            if (LocalesUtils.setAppLocale(
-                    getActivity(), mSelectedLanguage)) {
+            Activity activity = requireActivity();
+            if (LocalesUtils.setLocale(
+                    LocalesUtils.getLocaleFromIndex(mSelectedLanguage), activity)) {
                 mLogger.info("App locale changed successfully.");
-
-                LocalesUtils.refreshApplication(requireActivity());
+                // A recreated activity must not restore the dialog
+                dismiss();
             } else {
                 mLogger.error("Unsuccessful trial to change the App locale.");
                 // TODO: notify the user that his request not placed
@@ -170,13 +278,19 @@ public class LanguagesListDialogFragment extends DialogFragment implements Dialo
         this.onLanguageSelectedLocalized(this.getCurrentLocaleIndex());
     }
 
+    /**
+     * @return the index of the selected locale, or -1 if the user didn't select one yet
+     */
+    protected int getSelectedLanguage() {
+        return mSelectedLanguage;
+    }
+
     /**
      *
      * @return available languages
      */
     protected String[] getLanguages() {
-        ArrayList<String> languages =  LocalesUtils.getLocalesWithDisplayName();
-        return languages.toArray(new String[0]);
+        return LocalesUtils.getLocalesDisplayNames().clone();
     }
 
     /**
@@ -192,4 +306,12 @@ public class LanguagesListDialogFragment extends DialogFragment implements Dialo
         Dialog dialog = this.getDialog();
         if (dialog != null) dialog.cancel();
     }
-}
\ No newline at end of file
+
+    /**
+     * Previews have their own thread, so they never wait behind locales detection
+     */
+    private static final class PreviewHolder {
+        static final ThreadPoolExecutor EXECUTOR =
+                LocalesUtils.BackgroundHolder.newExecutor("RosettaX-preview");
+    }
+}
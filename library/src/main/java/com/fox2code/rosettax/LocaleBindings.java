@@ -0,0 +1,150 @@
+package com.fox2code.rosettax;
+
+import android.app.Activity;
+import android.content.res.Resources;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.StringRes;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class lets screens switch locale without being restarted, views, menu items and callbacks
+ * register the strings they display, and are updated in one pass on the main thread once the
+ * locale changed. Everything is weakly referenced, so registering never leaks a screen.
+ *
+ * Activities opt in with {@link #setLiveSwitchEnabled(Activity, boolean)}, they are then not
+ * refreshed after a locale change. This is not used with the platform per-app languages, as the
+ * platform recreates activities itself.
+ */
+public final class LocaleBindings {
+    private static final WeakHashMap<Activity, Boolean> sLiveActivities = new WeakHashMap<>();
+    private static final WeakHashMap<TextView, Integer> sTexts = new WeakHashMap<>();
+    private static final WeakHashMap<MenuItem, Integer> sTitles = new WeakHashMap<>();
+    private static final WeakHashMap<Object, ArrayList<Callback<Object>>> sCallbacks =
+            new WeakHashMap<>();
+    private static final AtomicReference<Locale> sPendingLocale = new AtomicReference<>();
+
+    private LocaleBindings() {}
+
+    /**
+     * @param activity the activity
+     * @param enabled true to only rebind the strings of the activity when the locale changes
+     *                instead of refreshing it
+     */
+    @MainThread
+    public static void setLiveSwitchEnabled(@NonNull Activity activity, boolean enabled) {
+        if (enabled) {
+            sLiveActivities.put(activity, Boolean.TRUE);
+        } else {
+            sLiveActivities.remove(activity);
+        }
+    }
+
+    /**
+     * @return true if the activity only rebinds its strings when the locale changes
+     */
+    @MainThread
+    public static boolean isLiveSwitchEnabled(@NonNull Activity activity) {
+        return sLiveActivities.containsKey(activity);
+    }
+
+    /**
+     * Sets the text of the view, and updates it when the locale changes
+     */
+    @MainThread
+    public static void bind(@NonNull TextView view, @StringRes int stringId) {
+        view.setText(stringId);
+        sTexts.put(view, stringId);
+    }
+
+    /**
+     * Sets the title of the menu item, and updates it when the locale changes
+     */
+    @MainThread
+    public static void bind(@NonNull MenuItem item, @StringRes int stringId) {
+        item.setTitle(stringId);
+        sTitles.put(item, stringId);
+    }
+
+    /**
+     * Calls the callback when the locale changes, as long as the owner is alive. The callback
+     * must not reference the owner, it is given as a parameter instead.
+     * @param owner the object the callback updates, ex. an activity or a fragment
+     * @param callback the callback
+     */
+    @MainThread
+    @SuppressWarnings("unchecked")
+    public static <T> void bind(@NonNull T owner, @NonNull Callback<? super T> callback) {
+        ArrayList<Callback<Object>> callbacks = sCallbacks.get(owner);
+        if (callbacks == null) {
+            sCallbacks.put(owner, callbacks = new ArrayList<>(2));
+        }
+        callbacks.add((Callback<Object>) callback);
+    }
+
+    /**
+     * Stops updating the given view, menu item or owner
+     */
+    @MainThread
+    public static void unbind(@NonNull Object target) {
+        sTexts.remove(target);
+        sTitles.remove(target);
+        sCallbacks.remove(target);
+    }
+
+    /**
+     * Schedules the strings update, several locale changes before it runs are coalesced
+     * @param locale the new app locale
+     */
+    static void dispatchLocaleChanged(@NonNull Locale locale) {
+        if (sPendingLocale.getAndSet(locale) == null) {
+            LocalesUtils.BackgroundHolder.MAIN_HANDLER.post(LocaleBindings::rebind);
+        }
+    }
+
+    private static void rebind() {
+        Locale locale = sPendingLocale.getAndSet(null);
+        if (locale == null || (sTexts.isEmpty() && sTitles.isEmpty() && sCallbacks.isEmpty())) {
+            return;
+        }
+        Resources resources = LocalesUtils.getResourcesInLocale(locale);
+        for (Map.Entry<TextView, Integer> entry: sTexts.entrySet()) {
+            entry.getKey().setText(resources.getString(entry.getValue()));
+        }
+        for (Map.Entry<MenuItem, Integer> entry: sTitles.entrySet()) {
+            entry.getKey().setTitle(resources.getString(entry.getValue()));
+        }
+        // Callbacks may bind or unbind while being called
+        ArrayList<Map.Entry<Object, ArrayList<Callback<Object>>>> callbacks =
+                new ArrayList<>(sCallbacks.entrySet());
+        for (Map.Entry<Object, ArrayList<Callback<Object>>> entry: callbacks) {
+            Object owner = entry.getKey();
+            if (owner == null) {
+                continue;
+            }
+            for (Callback<Object> callback: new ArrayList<>(entry.getValue())) {
+                callback.onLocaleChanged(owner, resources);
+            }
+        }
+    }
+
+    /**
+     * Receive locale changes of a bound owner
+     */
+    public interface Callback<T> {
+        /**
+         * Called on the main thread
+         * @param owner the bound owner
+         * @param resources the application resources in the new locale
+         */
+        void onLocaleChanged(@NonNull T owner, @NonNull Resources resources);
+    }
+}
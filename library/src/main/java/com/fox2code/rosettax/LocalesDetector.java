@@ -1,19 +1,29 @@
 package com.fox2code.rosettax;
 
 import android.content.Context;
-import android.content.res.Configuration;
+import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
 import android.content.res.Resources;
-import android.util.DisplayMetrics;
+import android.os.Build;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
 
+import com.fox2code.rosettax.core.ArscLocalesScanner;
+import com.fox2code.rosettax.core.Locales;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
-import java.util.Set;
+import java.util.concurrent.CancellationException;
 
 /**
  * This class detects the application available locales inside the resources based on a string id,
@@ -24,9 +34,18 @@ import java.util.Set;
  */
 final class LocalesDetector {
     private static final String TAG = LocalesDetector.class.getName();
+    private static final String CACHE_NAME = "rosettax_locales_cache";
+    private static final String CACHE_VERSION_CODE_KEY = "version_code";
+    private static final String CACHE_LAST_UPDATE_TIME_KEY = "last_update_time";
+    private static final String CACHE_PROBE_KEY = "probe";
+    private static final String CACHE_LOCALES_KEY = "locales";
+
+    static final int BACKEND_RESOURCES = 0;
+    static final int BACKEND_ARSC = 1;
 
     private final Context mContext;
     private final Logger mLogger;
+    private volatile int mBackend = BACKEND_RESOURCES;
 
     LocalesDetector(Context context)    {
         this.mContext = context;
@@ -34,24 +53,95 @@ final class LocalesDetector {
     }
 
     /**
-     * this method takes an experimental string id to see if it's exists in other available
-     * locales inside the app than default locale.
+     * this method takes experimental string ids to see if they exists in other available
+     * locales inside the app than default locale. Each locale is fingerprinted by the values of
+     * all the given strings, so a single string being the same in two languages doesn't hide one
+     * of them.
      * NOTE: Even if you have a folder named values-ar it doesn't mean you have any resources
      *      there
      *
-     * @param stringId experimental string id to discover locales
+     * The result is cached until the app is updated or the base locale changes, so only the first
+     * start after an install or an update have to probe the locales.
+     *
+     * @param stringIds experimental string ids to discover locales
      * @return the discovered locales
+     * @throws CancellationException if the calling thread is interrupted
+     */
+    HashSet<Locale> fetchAvailableLocales(@StringRes int... stringIds) {
+        if (stringIds.length == 0) {
+            throw new IllegalArgumentException("At least one string id is required");
+        }
+        int backend = this.mBackend;
+        // The base locale is always part of the result, so changing it invalidates the cache
+        String probe = backend + ":" + LocalesUtils.getBaseLocale().toLanguageTag() + ":" +
+                Arrays.toString(stringIds);
+        PackageInfo packageInfo = this.getPackageInfo();
+        HashSet<Locale> result = this.getCachedLocales(packageInfo, probe);
+        if (result == null) {
+            if (backend == BACKEND_ARSC) {
+                result = this.scanAvailableLocales(stringIds);
+            }
+            if (result == null) {
+                result = this.probeAvailableLocales(stringIds);
+            }
+            this.setCachedLocales(packageInfo, probe, result);
+        }
+        return result;
+    }
+
+    /**
+     * @param backend either {@link #BACKEND_RESOURCES} or {@link #BACKEND_ARSC}
      */
-    HashSet<Locale> fetchAvailableLocales(@StringRes int stringId) {
+    void setBackend(int backend) {
+        if (backend != BACKEND_RESOURCES && backend != BACKEND_ARSC) {
+            throw new IllegalArgumentException("Invalid detection backend: " + backend);
+        }
+        this.mBackend = backend;
+    }
+
+    /**
+     * Reads the app resources.arsc tables instead of creating a Resources object per locale.
+     *
+     * @return the locales that translate at least one of the given strings, or null if the tables
+     *         can't be read
+     */
+    @Nullable
+    private HashSet<Locale> scanAvailableLocales(@StringRes int[] stringIds) {
+        ApplicationInfo applicationInfo = mContext.getApplicationInfo();
+        ArrayList<String> apks = new ArrayList<>();
+        apks.add(applicationInfo.sourceDir);
+        if (applicationInfo.splitSourceDirs != null) {
+            // Language splits of app bundles have their own table
+            apks.addAll(Arrays.asList(applicationInfo.splitSourceDirs));
+        }
+
+        HashSet<Locale> result = new HashSet<>();
+        result.add(LocalesUtils.getBaseLocale());
+        try {
+            for (String apk: apks) {
+                ArscLocalesScanner scanner = ArscLocalesScanner.fromApk(new File(apk));
+                if (scanner != null) {
+                    result.addAll(scanner.scan(stringIds));
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            mLogger.warn("Failed to scan resources table, fallback to resources probing: " + e);
+            return null;
+        }
+        return result;
+    }
+
+    private HashSet<Locale> probeAvailableLocales(@StringRes int[] stringIds) {
 
-        DisplayMetrics dm = mContext.getResources().getDisplayMetrics();
-        Configuration conf = mContext.getResources().getConfiguration();
-        Locale originalLocale = conf.locale;
         Locale baseLocale = LocalesUtils.getBaseLocale();
-        conf.locale = baseLocale;
 
-        ArrayList<String> references = new ArrayList<>();
-        references.add(new Resources(mContext.getAssets(), dm, conf).getString(stringId));
+        // Probed resources are not cached, as there can be hundreds of asset locales that would
+        // evict the entries used by the dialog and the bindings
+
+        // Lists hash and compare all their strings, so this is a set of combined fingerprints
+        HashSet<List<String>> fingerprints = new HashSet<>();
+        fingerprints.add(this.fingerprint(
+                LocalesUtils.createResourcesInLocale(baseLocale), stringIds));
 
         HashSet<Locale> result = new HashSet<>();
         result.add(baseLocale);
@@ -60,110 +150,127 @@ final class LocalesDetector {
             if(loc.isEmpty()){
                 continue;
             }
-
-            Locale l;
-            boolean referencesUpdateLock = false;
-
-            l = Locale.forLanguageTag(loc);
-
-            conf.locale = l;
-
-            //TODO: put it in a method
-            String tmpString = new Resources(mContext.getAssets(), dm, conf).getString(stringId);
-            for (String reference: references)  {
-                if(reference.equals(tmpString)){
-                    // TODO: check its original locale
-                    referencesUpdateLock = true;
-                    break;
-                }
+            if (Thread.currentThread().isInterrupted()) {
+                mLogger.debug("Locales detection interrupted.");
+                throw new CancellationException();
             }
 
-            if(!referencesUpdateLock)   {
+            Locale l = Locale.forLanguageTag(loc);
+
+            // TODO: check its original locale when the fingerprint is already known
+            if (fingerprints.add(this.fingerprint(
+                    LocalesUtils.createResourcesInLocale(l), stringIds))) {
                 result.add(l);
-                references.add(tmpString);
             }
         }
 
-        conf.locale = originalLocale; // to restore our guy initial state
         return result;
     }
 
     /**
-     * TODO: return the selected one instead
-     * @return application current locale
+     * @return the values of the given strings in the resources locale
      */
-    Locale getCurrentLocale()   {
-        return mContext.getResources().getConfiguration().locale;
+    private List<String> fingerprint(Resources resources, @StringRes int[] stringIds) {
+        String[] strings = new String[stringIds.length];
+        for (int i = 0; i < stringIds.length; i++) {
+            strings[i] = resources.getString(stringIds[i]);
+        }
+        return Arrays.asList(strings);
+    }
+
+    @Nullable
+    private PackageInfo getPackageInfo() {
+        try {
+            return mContext.getPackageManager().getPackageInfo(mContext.getPackageName(), 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            mLogger.warn("Failed to get package info, locales cache disabled.");
+            return null;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static long getVersionCode(PackageInfo packageInfo) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ?
+                packageInfo.getLongVersionCode() : packageInfo.versionCode;
     }
 
     /**
-     * TODO: what if a user didn't provide a closer email at all?
-     *
-     * This method should provide a locale that is close to the given one in the parameter, it's
-     * currently checking the language only if in case the detector detects the string in other
-     * language.
+     * @return the cached locales if they have been detected by the same app version using the
+     *         same probe and base locale, null otherwise
+     */
+    @Nullable
+    private HashSet<Locale> getCachedLocales(@Nullable PackageInfo packageInfo, String probe) {
+        if (packageInfo == null) {
+            return null;
+        }
+        SharedPreferences cache = mContext.getSharedPreferences(CACHE_NAME, Context.MODE_PRIVATE);
+        String locales = cache.getString(CACHE_LOCALES_KEY, null);
+        if (locales == null ||
+                cache.getLong(CACHE_VERSION_CODE_KEY, -1) != getVersionCode(packageInfo) ||
+                cache.getLong(CACHE_LAST_UPDATE_TIME_KEY, -1) != packageInfo.lastUpdateTime ||
+                !probe.equals(cache.getString(CACHE_PROBE_KEY, null))) {
+            return null;
+        }
+
+        HashSet<Locale> result = new HashSet<>();
+        for (String tag: locales.split(",")) {
+            result.add(Locale.forLanguageTag(tag));
+        }
+        mLogger.debug("Using cached detected locales.");
+        return result;
+    }
+
+    private void setCachedLocales(
+            @Nullable PackageInfo packageInfo, String probe, HashSet<Locale> locales) {
+        if (packageInfo == null) {
+            return;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (Locale locale: locales) {
+            if (builder.length() != 0) builder.append(',');
+            builder.append(locale.toLanguageTag());
+        }
+        mContext.getSharedPreferences(CACHE_NAME, Context.MODE_PRIVATE).edit()
+                .putLong(CACHE_VERSION_CODE_KEY, getVersionCode(packageInfo))
+                .putLong(CACHE_LAST_UPDATE_TIME_KEY, packageInfo.lastUpdateTime)
+                .putString(CACHE_PROBE_KEY, probe)
+                .putString(CACHE_LOCALES_KEY, builder.toString())
+                .apply();
+    }
+
+    /**
+     * Reads the locales table generated at build time by rosettax-locales.gradle, this is a single
+     * resource lookup instead of a Resources object per asset locale.
      *
-     * @param locale mostly the locale that's not detected or provided
-     * @return the index of the most close locale to the given locale. -1 if not detected
+     * @return the locales generated at build time, or null if the app didn't generate them
      */
-    int detectMostClosestLocale(Locale locale)   {
-
-        mLogger.debug("Start detecting a close locale to: ");
-
-        int index = -1;
-        int precision = 0;
-        Locale localeClosest = null;
-        int indexLocaleClosest = -1;
-        String countryFallback = LocalesUtils.getCountryFallback(locale);
-        for (Locale loc: LocalesUtils.getLocales()) {
-            index++;
-            if (loc.equals(locale)) {
-                localeClosest = loc;
-                indexLocaleClosest = index;
-                precision = 3;
-                break; // Break
-            }
-            if (loc.getDisplayLanguage().equals(locale.getDisplayLanguage()) &&
-                    (countryFallback != null && countryFallback.equals(locale.getCountry()))) {
-                localeClosest = loc;
-                indexLocaleClosest = index;
-                precision = 2;
-                continue;
-            }
-            if (precision >= 2) continue;
-            if (loc.getDisplayLanguage().equals(locale.getDisplayLanguage())) {
-                localeClosest = loc;
-                indexLocaleClosest = index;
-                precision = 1;
-                continue;
-            }
-            if (precision >= 1) continue;
-            if (locale.getLanguage().equals(loc.getLanguage()) &&
-                    (indexLocaleClosest == -1 || (countryFallback != null &&
-                            countryFallback.equals(locale.getCountry())))) {
-                localeClosest = loc;
-                indexLocaleClosest = index;
-            }
+    @Nullable
+    HashSet<Locale> fetchBuildTimeLocales() {
+        String[] tags = mContext.getResources().getStringArray(R.array.rosetta_build_locales);
+        if (tags.length == 0) {
+            return null;
         }
 
-        if (localeClosest != null && indexLocaleClosest != -1) {
-            if (precision == 3) {
-                mLogger.info("The locale: '" + localeClosest +
-                        "' has been detected as the same locale to: '" + locale + "'");
-            } else {
-                mLogger.info("The locale: '" + localeClosest +
-                        "' has been detected as a closer locale to: '" + locale + "'");
-            }
-            return indexLocaleClosest;
-        } else {
-            mLogger.debug("No closer locales found.");
-            return -1;
+        HashSet<Locale> result = new HashSet<>();
+        result.add(LocalesUtils.getBaseLocale());
+        for (String tag: tags) {
+            result.add(Locale.forLanguageTag(tag));
         }
+        mLogger.debug("Using " + tags.length + " build time detected locales.");
+        return result;
     }
 
     /**
-     * This method validate locales by checking if they are available of they contain wrong letter
-     * case and adding the valid ones in a clean set.
+     * TODO: return the selected one instead
+     * @return application current locale
+     */
+    Locale getCurrentLocale()   {
+        return mContext.getResources().getConfiguration().locale;
+    }
+
+    /**
+     * This method validate locales by checking if their canonical form is available and adding
+     * the valid ones in a clean set.
      * @param locales to be checked
      * @return valid locales
      */
@@ -171,35 +278,12 @@ final class LocalesDetector {
 
         mLogger.debug("Validating given locales..");
 
-        if (!(locales instanceof Set)) {
-            locales = new LinkedHashSet<>(locales);
-        }
-
-        for (Locale l:LocalesUtils.getPseudoLocales()) {
-            if(locales.remove(l)) {
-                mLogger.info("Pseudo locale '" + l + "' has been removed.");
-            }
-        }
-
-        LinkedHashSet<Locale> cleanLocales = new LinkedHashSet<>();
-        Locale[] androidLocales = Locale.getAvailableLocales();
-        for (Locale locale: locales) {
-            if (Arrays.asList(androidLocales).contains(locale)) {
-                cleanLocales.add(locale);
+        ArrayList<Locale> discarded = new ArrayList<>();
+        LinkedHashSet<Locale> cleanLocales = Locales.validate(locales, discarded);
+        for (Locale locale: discarded) {
+            if (Locales.getPseudoLocales().contains(locale)) {
+                mLogger.info("Pseudo locale '" + locale + "' has been removed.");
             } else {
-                // Workaround for chinese not being correctly detected
-                switch ("" + locale) {
-                    case "zh":
-                        cleanLocales.add(Locale.CHINESE);
-                        continue;
-                    case "zh_CH":
-                        cleanLocales.add(Locale.SIMPLIFIED_CHINESE);
-                        continue;
-                    case "zh_TW":
-                        cleanLocales.add(Locale.TRADITIONAL_CHINESE);
-                        continue;
-                }
-                mLogger.error("Invalid passed locale: " + locale);
                 mLogger.warn("Invalid specified locale: '" + locale + "', has been discarded");
             }
         }
@@ -10,7 +10,11 @@ import android.preference.PreferenceManager;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * This class is responsible for setting and getting the preferred locale and manage any related
@@ -20,148 +24,358 @@ import java.util.Locale;
  * Created by ahmedjazzar on 1/22/16.
  */
 final class LocalesPreferenceManager implements Application.ActivityLifecycleCallbacks {
-    private final SharedPreferences mSharedPreferences;
-    private final SharedPreferences.Editor mEditor;
+    private final LocalesStorage mStorage;
+    private volatile LocalesSnapshot mSnapshot;
+    private volatile boolean mStale;
+    /**
+     * The user preferred locale last applied by this process
+     */
+    private Locale mSyncedLocale;
+    /**
+     * Live activities, mapped to true if they must be recreated once resumed
+     */
+    private final WeakHashMap<Activity, Boolean> mActivities = new WeakHashMap<>();
 
     static final int BASE_LOCALE = 1;
+    private final String BASE_LOCALE_KEY = "base_locale";
     private final String BASE_LANGUAGE_KEY = "base_language";
     private final String BASE_COUNTRY_KEY = "base_country";
 
     static final int LAUNCH_LOCALE = 2;
+    private final String LAUNCH_LOCALE_KEY = "launch_locale";
     private final String LAUNCH_LANGUAGE_KEY = "launch_language";
     private final String LAUNCH_COUNTRY_KEY = "launch_country";
 
     static final int USER_PREFERRED_LOCALE = 3;
+    private final String USER_PREFERRED_LOCALE_KEY = "user_preferred_locale";
     private final String USER_PREFERRED_LANGUAGE_KEY = "user_preferred_language";
     private final String USER_PREFERRED_COUNTRY_KEY = "user_preferred_country";
 
-    LocalesPreferenceManager(Context context, Locale firstLaunchLocale, Locale baseLocale)   {
-
-        this.mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
-        this.mEditor = this.mSharedPreferences.edit();
-
-        if (!isLocaleExists(BASE_LOCALE))  {
-            this.setPreferredLocale(BASE_LOCALE, baseLocale);
+    LocalesPreferenceManager(Context context, LocalesStorage storage,
+                             Locale firstLaunchLocale, Locale baseLocale)   {
+
+        this.mStorage = storage;
+
+        LocalesSnapshot snapshot = LocalesSnapshot.fromTags(storage.load());
+        if (snapshot == null) {
+            // Nothing stored yet, migrate the locales from the default preferences only once
+            SharedPreferences sharedPreferences =
+                    PreferenceManager.getDefaultSharedPreferences(context);
+            ArrayList<String> legacyKeys = new ArrayList<>();
+            snapshot = this.migrateSharedPreferences(
+                    sharedPreferences, firstLaunchLocale, baseLocale, legacyKeys);
+            storage.store(snapshot.toTags());
+            // The old keys are only removed once the locales are safely written, otherwise the
+            // migration is done again on next start
+            if (!legacyKeys.isEmpty() && storage.flush()) {
+                SharedPreferences.Editor editor = sharedPreferences.edit();
+                for (String legacyKey: legacyKeys) {
+                    editor.remove(legacyKey);
+                }
+                editor.apply();
+            }
         }
+        this.mSnapshot = snapshot;
+        this.mSyncedLocale = snapshot.userPreferred;
+    }
 
-        if (!isLocaleExists(LAUNCH_LOCALE))  {
-            this.setPreferredLocale(LAUNCH_LOCALE, firstLaunchLocale);
+    /**
+     * Older versions stored the locales in the app default preferences, first as language and
+     * country keys, then as BCP-47 tags
+     * @param legacyKeys filled with the keys of the found locales
+     * @return the locales found in the default preferences, or the defaults
+     */
+    private LocalesSnapshot migrateSharedPreferences(SharedPreferences sharedPreferences,
+            Locale firstLaunchLocale, Locale baseLocale, ArrayList<String> legacyKeys) {
+        Locale[] locales = {baseLocale, firstLaunchLocale, firstLaunchLocale};
+        for (int key = BASE_LOCALE; key <= USER_PREFERRED_LOCALE; key++) {
+            String localeKey = this.getLocaleKey(key);
+            String[] languageKeys = this.getLegacyKeys(key);
+            String tag = sharedPreferences.getString(localeKey, null);
+            String language = sharedPreferences.getString(languageKeys[0], null);
+            if (tag != null) {
+                locales[key - BASE_LOCALE] = Locale.forLanguageTag(tag);
+            } else if (language != null) {
+                locales[key - BASE_LOCALE] = new Locale(language,
+                        sharedPreferences.getString(languageKeys[1], ""));
+            } else {
+                continue;
+            }
+            legacyKeys.add(localeKey);
+            legacyKeys.add(languageKeys[0]);
+            legacyKeys.add(languageKeys[1]);
         }
+        return new LocalesSnapshot(locales[0], locales[1], locales[2]);
+    }
 
-        if (!isLocaleExists(USER_PREFERRED_LOCALE))  {
-            this.setPreferredLocale(USER_PREFERRED_LOCALE, firstLaunchLocale);
-        }
+    LocalesStorage getStorage() {
+        return this.mStorage;
     }
 
     boolean isLocaleExists(int key) {
-        switch (key) {
-            case BASE_LOCALE:
-                return mSharedPreferences.contains(this.BASE_LANGUAGE_KEY);
-            case LAUNCH_LOCALE:
-                return mSharedPreferences.contains(this.LAUNCH_LANGUAGE_KEY);
-            case USER_PREFERRED_LOCALE:
-                return mSharedPreferences.contains(this.USER_PREFERRED_LANGUAGE_KEY);
-            default:
-                return false;
+        return this.getSnapshot().get(key) != null;
+    }
+
+    /**
+     * Marks the stored locales as changed by another process, they are reloaded on next access
+     */
+    void invalidate() {
+        this.mStale = true;
+    }
+
+    /**
+     * Any read may reload the stale locales, so changes are detected against the user preferred
+     * locale this process last acted on rather than the stale flag
+     * @return true if the user preferred locale has been changed by another process since the
+     *         last call
+     */
+    synchronized boolean reloadIfChanged() {
+        Locale userPreferred = this.getSnapshot().userPreferred;
+        if (userPreferred.equals(this.mSyncedLocale)) {
+            return false;
+        }
+        this.mSyncedLocale = userPreferred;
+        return true;
+    }
+
+    private LocalesSnapshot getSnapshot() {
+        if (this.mStale) {
+            synchronized (this) {
+                if (this.mStale) {
+                    // Cleared first so a change notified while loading is not missed
+                    this.mStale = false;
+                    LocalesSnapshot snapshot = LocalesSnapshot.fromTags(mStorage.load());
+                    if (snapshot != null) {
+                        this.mSnapshot = snapshot;
+                    }
+                }
+            }
         }
+        return this.mSnapshot;
     }
 
     /**
-     * Sets user preferred locale
+     * Sets user preferred locale, the locale is written to the storage asynchronously
      *
      * @param locale user desired locale
      * @return true if the preference updated
      */
-    boolean setPreferredLocale(int key, Locale locale)   {
-        return this.setPreferredLocale(key, locale.getLanguage(), locale.getCountry());
+    synchronized boolean setPreferredLocale(int key, Locale locale)   {
+        if (this.getLocaleKey(key) == null) {
+            return false;
+        }
+        LocalesSnapshot current = this.getSnapshot();
+        if (locale.equals(current.get(key))) {
+            return true;
+        }
+        LocalesSnapshot snapshot = current.with(key, locale);
+        this.mSnapshot = snapshot;
+        if (key == USER_PREFERRED_LOCALE) {
+            this.mSyncedLocale = locale;
+        }
+        mStorage.store(snapshot.toTags());
+        return true;
     }
 
     /**
-     * @return preferred locale after concatenating language and country
+     * @return true if the locales have already been handed to the platform per-app languages
+     */
+    boolean isPlatformMigrated() {
+        return this.getSnapshot().platformMigrated;
+    }
+
+    /**
+     * Records that the locales have been handed to the platform, so it's only done once
+     */
+    synchronized void setPlatformMigrated() {
+        LocalesSnapshot current = this.getSnapshot();
+        if (!current.platformMigrated) {
+            LocalesSnapshot snapshot = current.withPlatformMigrated();
+            this.mSnapshot = snapshot;
+            mStorage.store(snapshot.toTags());
+        }
+    }
+
+    /**
+     * @return preferred locale, read from memory
      */
     Locale getPreferredLocale(int key)    {
+        return this.getSnapshot().get(key);
+    }
 
-        String languageKey;
-        String countryKey;
+    /**
+     * Blocks until pending locales writes are done
+     *
+     * @return true if the locales have been written successfully
+     */
+    boolean flush() {
+        return mStorage.flush();
+    }
 
+    /**
+     * @return the default preferences key that stored the locale as a BCP-47 tag
+     */
+    private String getLocaleKey(int key) {
         switch (key)    {
             case BASE_LOCALE:
-                languageKey = this.BASE_LANGUAGE_KEY;
-                countryKey = this.BASE_COUNTRY_KEY;
-                break;
+                return this.BASE_LOCALE_KEY;
             case LAUNCH_LOCALE:
-                languageKey = this.LAUNCH_LANGUAGE_KEY;
-                countryKey = this.LAUNCH_COUNTRY_KEY;
-                break;
+                return this.LAUNCH_LOCALE_KEY;
             case USER_PREFERRED_LOCALE:
-                languageKey = this.USER_PREFERRED_LANGUAGE_KEY;
-                countryKey = this.USER_PREFERRED_COUNTRY_KEY;
-                break;
+                return this.USER_PREFERRED_LOCALE_KEY;
             default:
                 return null;
         }
-
-        String language = getPreferredLanguage(languageKey);
-        String country = getPreferredCountry(countryKey);
-
-        if (language == null)    {
-            return null;
-        }
-
-        return new Locale(language, country);
     }
 
     /**
-     * Sets user preferred locale by setting a language preference and a country preference since
-     * there's no supported preferences for locales
-     * @param language of the locale; ex. en
-     * @param country of the locale; ex. US
-     * @return true if the preferences updated
+     * @return the language and country keys used by older versions
      */
-    private boolean setPreferredLocale(int key, String language, String country)   {
-        
-        String languageKey;
-        String countryKey;
-
+    private String[] getLegacyKeys(int key) {
         switch (key)    {
             case BASE_LOCALE:
-                languageKey = this.BASE_LANGUAGE_KEY;
-                countryKey = this.BASE_COUNTRY_KEY;
-                break;
+                return new String[] {this.BASE_LANGUAGE_KEY, this.BASE_COUNTRY_KEY};
             case LAUNCH_LOCALE:
-                languageKey = this.LAUNCH_LANGUAGE_KEY;
-                countryKey = this.LAUNCH_COUNTRY_KEY;
-                break;
+                return new String[] {this.LAUNCH_LANGUAGE_KEY, this.LAUNCH_COUNTRY_KEY};
             case USER_PREFERRED_LOCALE:
-                languageKey = this.USER_PREFERRED_LANGUAGE_KEY;
-                countryKey = this.USER_PREFERRED_COUNTRY_KEY;
-                break;
+                return new String[] {
+                        this.USER_PREFERRED_LANGUAGE_KEY, this.USER_PREFERRED_COUNTRY_KEY};
             default:
-                return false;
+                return null;
+        }
+    }
+
+    /**
+     * Immutable copy of the stored locales, replaced on each write
+     */
+    private static final class LocalesSnapshot {
+        /**
+         * Stored after the locales tags once the locale has been handed to the platform
+         */
+        private static final String PLATFORM_MIGRATED_TAG = "platform-migrated";
+
+        final Locale base;
+        final Locale launch;
+        final Locale userPreferred;
+        final boolean platformMigrated;
+
+        LocalesSnapshot(Locale base, Locale launch, Locale userPreferred) {
+            this(base, launch, userPreferred, false);
         }
-        
-        mEditor.putString(languageKey, language);
-        mEditor.putString(countryKey, country);
 
-        return mEditor.commit();
+        LocalesSnapshot(Locale base, Locale launch, Locale userPreferred,
+                        boolean platformMigrated) {
+            this.base = base;
+            this.launch = launch;
+            this.userPreferred = userPreferred;
+            this.platformMigrated = platformMigrated;
+        }
+
+        Locale get(int key) {
+            switch (key) {
+                case BASE_LOCALE:
+                    return this.base;
+                case LAUNCH_LOCALE:
+                    return this.launch;
+                case USER_PREFERRED_LOCALE:
+                    return this.userPreferred;
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * @return the snapshot of the given tags, or null if they are missing
+         */
+        static LocalesSnapshot fromTags(String[] tags) {
+            if (tags == null || tags.length < 3) {
+                return null;
+            }
+            return new LocalesSnapshot(Locale.forLanguageTag(tags[0]),
+                    Locale.forLanguageTag(tags[1]), Locale.forLanguageTag(tags[2]),
+                    tags.length > 3 && PLATFORM_MIGRATED_TAG.equals(tags[3]));
+        }
+
+        String[] toTags() {
+            if (this.platformMigrated) {
+                return new String[] {this.base.toLanguageTag(), this.launch.toLanguageTag(),
+                        this.userPreferred.toLanguageTag(), PLATFORM_MIGRATED_TAG};
+            }
+            return new String[] {this.base.toLanguageTag(), this.launch.toLanguageTag(),
+                    this.userPreferred.toLanguageTag()};
+        }
+
+        LocalesSnapshot with(int key, Locale locale) {
+            switch (key) {
+                case BASE_LOCALE:
+                    return new LocalesSnapshot(
+                            locale, this.launch, this.userPreferred, this.platformMigrated);
+                case LAUNCH_LOCALE:
+                    return new LocalesSnapshot(
+                            this.base, locale, this.userPreferred, this.platformMigrated);
+                case USER_PREFERRED_LOCALE:
+                    return new LocalesSnapshot(
+                            this.base, this.launch, locale, this.platformMigrated);
+                default:
+                    return this;
+            }
+        }
+
+        LocalesSnapshot withPlatformMigrated() {
+            return new LocalesSnapshot(this.base, this.launch, this.userPreferred, true);
+        }
     }
 
     /**
-     * @return preferred language
+     * Tracks activities created before these callbacks were registered, such as the ones created
+     * before a deferred initialization
      */
-    private String getPreferredLanguage(String key)  {
-        return mSharedPreferences.getString(key, null);
+    void trackActivities(@NonNull Collection<Activity> activities) {
+        for (Activity activity: activities) {
+            if (!mActivities.containsKey(activity)) {
+                mActivities.put(activity, Boolean.FALSE);
+            }
+        }
     }
 
     /**
-     * @return preferred country
+     * Recreates the given activity now, other live activities are recreated once resumed, so the
+     * task and its back stack are kept
+     * @param current the activity the user is interacting with
      */
-    private String getPreferredCountry(String key)  {
-        return mSharedPreferences.getString(key, null);
+    void recreateActivities(@NonNull Activity current) {
+        this.markActivitiesForRecreation(current);
+        current.recreate();
+    }
+
+    /**
+     * Marks live activities but the given one to be recreated once resumed, activities switching
+     * locale live only get their resources updated
+     * @param current the activity the user is interacting with
+     */
+    void markActivitiesForRecreation(@NonNull Activity current) {
+        Locale locale = this.getPreferredLocale(USER_PREFERRED_LOCALE);
+        for (Map.Entry<Activity, Boolean> entry: mActivities.entrySet()) {
+            Activity activity = entry.getKey();
+            if (activity == null || activity == current) {
+                continue;
+            }
+            if (LocaleBindings.isLiveSwitchEnabled(activity)) {
+                LocalesUtils.applyLocale(activity.getResources(), locale);
+            } else {
+                entry.setValue(Boolean.TRUE);
+            }
+        }
     }
 
     @Override
     public void onActivityCreated(@NonNull Activity activity, @Nullable Bundle savedInstanceState) {
+        mActivities.put(activity, Boolean.FALSE);
+        if (LocalesUtils.isUsingPlatformLocales()) {
+            // The platform already created the activity in the app locale
+            return;
+        }
+        LocalesUtils.syncPreferredLocale(activity);
         LocalesUtils.setAppLocale(activity, this.getPreferredLocale(
                 LocalesPreferenceManager.USER_PREFERRED_LOCALE));
     }
@@ -170,7 +384,12 @@ final class LocalesPreferenceManager implements Application.ActivityLifecycleCal
     public void onActivityStarted(@NonNull Activity activity) {}
 
     @Override
-    public void onActivityResumed(@NonNull Activity activity) {}
+    public void onActivityResumed(@NonNull Activity activity) {
+        if (mActivities.get(activity) == Boolean.TRUE) {
+            mActivities.put(activity, Boolean.FALSE);
+            activity.recreate();
+        }
+    }
 
     @Override
     public void onActivityPaused(@NonNull Activity activity) {}
@@ -182,5 +401,7 @@ final class LocalesPreferenceManager implements Application.ActivityLifecycleCal
     public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {}
 
     @Override
-    public void onActivityDestroyed(@NonNull Activity activity) {}
+    public void onActivityDestroyed(@NonNull Activity activity) {
+        mActivities.remove(activity);
+    }
 }
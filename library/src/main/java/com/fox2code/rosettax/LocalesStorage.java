@@ -0,0 +1,32 @@
+package com.fox2code.rosettax;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * This interface stores the locales picked by the library, the default implementation keeps them
+ * in a small private file. Implement it to keep the locales elsewhere, ex. in an existing database.
+ *
+ * Locales are passed as BCP-47 tags, in the {base, launch, user preferred} order, they may be
+ * followed by library markers that must be stored as is.
+ */
+public interface LocalesStorage {
+    /**
+     * Called once, when the library is initialized
+     * @return the stored locales, or null if nothing is stored yet
+     */
+    @Nullable
+    String[] load();
+
+    /**
+     * Called on each locale change, must not block
+     * @param tags the locales to store
+     */
+    void store(@NonNull String[] tags);
+
+    /**
+     * Blocks until stored locales are written
+     * @return true if the locales have been written successfully
+     */
+    boolean flush();
+}
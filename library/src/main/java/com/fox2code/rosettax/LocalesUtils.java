@@ -2,29 +2,43 @@ package com.fox2code.rosettax;
 
 import android.annotation.SuppressLint;
 import android.app.Activity;
+import android.content.ComponentCallbacks;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.os.Build;
+import android.os.Handler;
 import android.os.LocaleList;
+import android.os.Looper;
+import android.text.TextUtils;
 import android.util.DisplayMetrics;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
-import androidx.fragment.app.FragmentActivity;
+
+import com.fox2code.rosettax.core.Locales;
+import com.fox2code.rosettax.core.LocalesMatcher;
+import com.fox2code.rosettax.core.LocalesSearchIndex;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class is a helper class that connects all library classes activities together and make it
@@ -34,61 +48,70 @@ import java.util.Locale;
  * Created by ahmedjazzar on 1/19/16.
  */
 final class LocalesUtils {
+    static final int REFRESH_STRATEGY_RELAUNCH = 0;
+    static final int REFRESH_STRATEGY_RECREATE = 1;
+
 
     @SuppressLint("StaticFieldLeak")
     private static LocalesDetector sDetector;
+    private static LocalizedResourcesCache sResourcesCache;
     private static LocalesPreferenceManager sLocalesPreferenceManager;
-    private static LinkedHashSet<Locale> sLocales =
+    private static volatile LinkedHashSet<Locale> sLocales =
             new LinkedHashSet<>(Collections.singleton(Locale.US));
-    private static Locale[] sLocalesArray;
-    private static final HashMap<String, String> sCountryFallback = new HashMap<>();
-    private static final Locale[] PSEUDO_LOCALES = {
-            new Locale("en", "XA"),
-            new Locale("ar", "XB")
-    };
+    private static volatile LocalesMatcher sMatcher;
+    private static volatile CurrentLocale sCurrentLocale;
+    private static volatile boolean sUsePlatformLocales;
+    private static volatile LocalesStorage sDefaultStorage;
+    private static volatile int sRefreshStrategy = REFRESH_STRATEGY_RELAUNCH;
+    private static final WeakHashMap<Resources, AppliedLocale> sAppliedLocales =
+            new WeakHashMap<>();
+    private static final AtomicInteger sConfigurationUpdates = new AtomicInteger();
+    private static final AtomicInteger sSkippedConfigurationUpdates = new AtomicInteger();
+    /**
+     * refreshRosettaX methods by activity class, {@link #NO_REFRESH_METHOD} if there is none
+     */
+    private static final ConcurrentHashMap<Class<?>, Object> sRefreshMethods =
+            new ConcurrentHashMap<>();
+    private static final Object NO_REFRESH_METHOD = new Object();
     private static final String TAG = LocalesDetector.class.getName();
     private static final Logger sLogger = new Logger(TAG);
 
-    static {
-        // en (English) and zh (Chinese) is handled by code instead
-        sCountryFallback.put("fr", "FR");
-        sCountryFallback.put("de", "DE");
-        sCountryFallback.put("it", "IT");
-        sCountryFallback.put("ja", "JP");
-        sCountryFallback.put("ko", "KR");
+    /**
+     * @param detector just a setter because I don't want to declare any constructors in this class
+     */
+    static void setDetector(@NonNull LocalesDetector detector) {
+        LocalesUtils.sDetector = detector;
     }
 
     /**
-     * @param translation translation id to use
+     * @param resourcesCache just a setter because I don't want to declare any constructors in
+     *                       this class
      */
-    static int getIdOfTranslation(@NonNull String translation) {
-        try {
-            return android.R.string.class.getDeclaredField(translation).getInt(null);
-        } catch (Throwable ignored) {
-            sLogger.debug("Translation \"" + translation + "\" doesn't exists on this system!");
-        }
-        try {
-            switch (translation) {
-                case "ok":
-                    return R.string.rosetta_ok;
-                case "cancel":
-                    return R.string.rosetta_cancel;
-                case "language":
-                    return R.string.rosetta_language;
-                default:
-                    return R.string.class.getDeclaredField(
-                            "rosetta_" + translation).getInt(null);
-            }
-        } catch (ReflectiveOperationException e) {
-            throw new RuntimeException("Failed to get: " + translation, e);
-        }
+    static void setResourcesCache(@NonNull LocalizedResourcesCache resourcesCache) {
+        LocalesUtils.sResourcesCache = resourcesCache;
     }
 
     /**
-     * @param detector just a setter because I don't want to declare any constructors in this class
+     * @param maxSize the maximum number of localized resources to keep
      */
-    static void setDetector(@NonNull LocalesDetector detector) {
-        LocalesUtils.sDetector = detector;
+    static void setResourcesCacheSize(int maxSize) {
+        sResourcesCache.setMaxSize(maxSize);
+    }
+
+    /**
+     * @param locale the wanted locale
+     * @return the application resources in the given locale
+     */
+    static Resources getResourcesInLocale(@NonNull Locale locale) {
+        return sResourcesCache.get(locale);
+    }
+
+    /**
+     * @param locale the wanted locale
+     * @return new application resources in the given locale, not kept in the resources cache
+     */
+    static Resources createResourcesInLocale(@NonNull Locale locale) {
+        return sResourcesCache.create(locale);
     }
 
     /**
@@ -100,6 +123,63 @@ final class LocalesUtils {
         LocalesUtils.sLocalesPreferenceManager = localesPreferenceManager;
     }
 
+    /**
+     * @return true if the locale preferences have been written to the disk successfully
+     */
+    static boolean flushPreferences() {
+        return sLocalesPreferenceManager.flush();
+    }
+
+    /**
+     * Applies the preferred locale to the application resources if another process changed it,
+     * this is cheap when nothing changed
+     * @param context any context of the application
+     */
+    static void syncPreferredLocale(Context context) {
+        LocalesPreferenceManager preferenceManager = LocalesUtils.sLocalesPreferenceManager;
+        if (preferenceManager != null && preferenceManager.reloadIfChanged()) {
+            Locale locale = preferenceManager.getPreferredLocale(
+                    LocalesPreferenceManager.USER_PREFERRED_LOCALE);
+            sLogger.info("Locale changed by another process to: " + locale);
+            LocalesUtils.setAppLocale(context.getApplicationContext(), locale);
+            // The preference is already up to date, so setAppLocale doesn't dispatch it
+            LocaleBindings.dispatchLocaleChanged(locale);
+        }
+    }
+
+    /**
+     * @param storage the storage used when the library is initialized without one
+     */
+    static void setDefaultStorage(@NonNull LocalesStorage storage) {
+        if (LocalesUtils.sLocalesPreferenceManager != null) {
+            throw new IllegalStateException(
+                    "The default storage must be set before the library is initialized");
+        }
+        LocalesUtils.sDefaultStorage = storage;
+    }
+
+    /**
+     * @return the storage set by the app, or null to use the default file storage
+     */
+    @Nullable
+    static LocalesStorage getDefaultStorage() {
+        return LocalesUtils.sDefaultStorage;
+    }
+
+    /**
+     * @param usePlatformLocales true if the platform applies and stores the app locale
+     */
+    static void setUsePlatformLocales(boolean usePlatformLocales) {
+        LocalesUtils.sUsePlatformLocales = usePlatformLocales;
+    }
+
+    /**
+     * @return true if the platform applies and stores the app locale
+     */
+    static boolean isUsingPlatformLocales() {
+        return LocalesUtils.sUsePlatformLocales;
+    }
+
     /**
      * @return the localesPreferenceManager instance
      */
@@ -108,22 +188,82 @@ final class LocalesUtils {
     }
 
     /**
-     * @param stringId a string to start discovering sLocales in
+     * @param stringIds strings to start discovering sLocales in
+     * @return a HashSet of discovered sLocales
+     */
+    static HashSet<Locale> fetchAvailableLocales(@StringRes int... stringIds) {
+        return sDetector.fetchAvailableLocales(stringIds);
+    }
+
+    /**
+     * @param backend the backend the detector should use
+     */
+    static void setDetectionBackend(int backend) {
+        sDetector.setBackend(backend);
+    }
+
+    /**
+     * @param stringIds strings to start discovering sLocales in if there is no build time table
      * @return a HashSet of discovered sLocales
      */
-    static HashSet<Locale> fetchAvailableLocales(@StringRes int stringId) {
-        return sDetector.fetchAvailableLocales(stringId);
+    static HashSet<Locale> fetchSupportedLocales(@StringRes int... stringIds) {
+        HashSet<Locale> locales = sDetector.fetchBuildTimeLocales();
+        return locales != null ? locales : sDetector.fetchAvailableLocales(stringIds);
+    }
+
+    /**
+     * Run locales detection on the background executor, the current locales are still served
+     * until the detection completes.
+     *
+     * @param stringIds strings to start discovering sLocales in
+     * @param apply true to set the detected locales as the supported ones
+     * @param callback called on the main thread with the detected locales, unless cancelled
+     * @return a future that can be used to get or cancel the detection
+     */
+    static Future<HashSet<Locale>> fetchAvailableLocalesAsync(
+            @StringRes int[] stringIds, boolean apply,
+            @Nullable LanguageSwitcher.LocalesCallback callback) {
+        FutureTask<HashSet<Locale>> task = new FutureTask<HashSet<Locale>>(() -> apply ?
+                fetchSupportedLocales(stringIds) : fetchAvailableLocales(stringIds)) {
+            @Override
+            protected void done() {
+                if (this.isCancelled()) {
+                    sLogger.debug("Locales detection cancelled.");
+                    return;
+                }
+                HashSet<Locale> locales;
+                try {
+                    locales = this.get();
+                } catch (ExecutionException | InterruptedException e) {
+                    sLogger.error("Locales detection failed: " + e);
+                    return;
+                }
+                if (apply) {
+                    setSupportedLocales(locales);
+                }
+                if (callback != null) {
+                    BackgroundHolder.MAIN_HANDLER.post(() -> callback.onLocalesDetected(locales));
+                }
+            }
+        };
+        BackgroundHolder.EXECUTOR.execute(task);
+        return task;
     }
 
     /**
      * @param localesSet sLocales  user wanna use
      */
-    static void setSupportedLocales(Collection<Locale> localesSet) {
-        if (LocalesUtils.sLocalesArray != null) {
+    static synchronized void setSupportedLocales(Collection<Locale> localesSet) {
+        if (LocalesUtils.sMatcher != null) {
             sLogger.warn("Setting supported locales twice is not supported!");
         }
-        LocalesUtils.sLocales = sDetector.validateLocales(localesSet);
-        LocalesUtils.sLocalesArray = LocalesUtils.sLocales.toArray(new Locale[0]);
+        LinkedHashSet<Locale> locales = sDetector.validateLocales(localesSet);
+        LocalesMatcher matcher = new LocalesMatcher(locales.toArray(new Locale[0]));
+        LocalesUtils.sMatcher = matcher;
+        LocalesUtils.sLocales = locales;
+        LocalesUtils.sCurrentLocale = null;
+        // Load display names and search keys off the main thread, before the dialog needs them
+        BackgroundHolder.EXECUTOR.execute(matcher::getSearchKeys);
         sLogger.debug("Locales have been changed");
     }
 
@@ -135,52 +275,67 @@ final class LocalesUtils {
     }
 
     /**
-     * @return a list of locales for displaying on the layout purposes
+     * @return the display names of the supported locales, must not be modified
      */
-    static ArrayList<String> getLocalesWithDisplayName() {
-        ArrayList<String> stringLocales = new ArrayList<>();
-
-        for (Locale loc : LocalesUtils.getLocales()) {
-            String langDisplay = loc.getDisplayName(loc);
-            sLogger.debug(loc + ": " + langDisplay);
-            stringLocales.add(langDisplay.substring(0, 1).toUpperCase() + langDisplay.substring(1).toLowerCase());
+    static String[] getLocalesDisplayNames() {
+        LocalesMatcher matcher = LocalesUtils.sMatcher;
+        if (matcher == null) {
+            return new String[] {LocalesMatcher.getDisplayName(Locale.US)};
         }
-        return stringLocales;
+        return matcher.getDisplayNames();
     }
 
     /**
-     * @return the index of the current app locale
+     * @return a search index of the supported locales, listing the system locales first
      */
-    static int getCurrentLocaleIndex() {
-        Locale locale = LocalesUtils.getCurrentLocale();
-        int index = -1;
-        int indexSec = -1;
-        int itr = 0;
-
-        String countryFallback = sCountryFallback.get(locale.getLanguage());
-        for (Locale l : sLocales) {
-            if (locale.equals(l)) {
-                index = itr;
-                break;
-            }
-            if (locale.getLanguage().equals(l.getLanguage()) &&
-                    (indexSec == -1 || (countryFallback != null &&
-                            countryFallback.equals(locale.getCountry())))) {
-                indexSec = itr;
-            }
-            itr++;
+    static LocalesSearchIndex newLocalesSearchIndex() {
+        LocalesMatcher matcher = LocalesUtils.sMatcher;
+        // Keys are computed once per supported locales, usually already in the background
+        String[] keys = matcher == null ? LocalesSearchIndex.computeKeys(
+                new Locale[] {Locale.US}, getLocalesDisplayNames()) : matcher.getSearchKeys();
+        Locale[] systemLocales = LocalesUtils.getSystemLocales();
+        int[] pinned = new int[systemLocales.length];
+        for (int i = 0; i < pinned.length; i++) {
+            pinned[i] = matcher == null ? getIndexOfLocale(systemLocales[i]) :
+                    matcher.getBestIndex(systemLocales[i]);
         }
+        return new LocalesSearchIndex(keys, pinned);
+    }
 
-        if (index == -1) {
-            // change the index to the most closer available locale
-            index = indexSec;
+    /**
+     * @return the locales of the device, not affected by the app locale
+     */
+    static Locale[] getSystemLocales() {
+        Configuration configuration = Resources.getSystem().getConfiguration();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            LocaleList localeList = configuration.getLocales();
+            Locale[] locales = new Locale[localeList.size()];
+            for (int i = 0; i < locales.length; i++) {
+                locales[i] = localeList.get(i);
+            }
+            return locales;
         }
+        return new Locale[] {configuration.locale};
+    }
 
-        if (index == -1) {
-            sLogger.warn("Current device locale '" + locale +
-                    "' does not appear in your given supported locales");
+    /**
+     * @return the index of the current app locale
+     */
+    static int getCurrentLocaleIndex() {
+        return LocalesUtils.getCurrentLocaleSnapshot().index;
+    }
 
-            index = sDetector.detectMostClosestLocale(locale);
+    /**
+     * The snapshot is only recomputed after the app locale, the supported locales or the
+     * configuration locale changed.
+     * @return the current app locale and its index
+     */
+    static CurrentLocale getCurrentLocaleSnapshot() {
+        CurrentLocale current = LocalesUtils.sCurrentLocale;
+        if (current == null) {
+            Locale locale = LocalesUtils.getCurrentLocale();
+            LocalesMatcher matcher = LocalesUtils.sMatcher;
+            int index = matcher == null ? 0 : matcher.getBestIndex(locale);
             if (index == -1) {
                 index = 0;
                 sLogger.warn("Current locale index changed to 0 as the current locale '" +
@@ -188,9 +343,10 @@ final class LocalesUtils {
                         "' not supported."
                 );
             }
+            current = new CurrentLocale(locale, index);
+            LocalesUtils.sCurrentLocale = current;
         }
-
-        return index;
+        return current;
     }
 
     /**
@@ -199,29 +355,27 @@ final class LocalesUtils {
      * more information about pseudo localization
      */
     static List<Locale> getPseudoLocales() {
-        return Arrays.asList(LocalesUtils.PSEUDO_LOCALES);
+        return Locales.getPseudoLocales();
     }
 
     /**
      * @return the locale at the given index
      */
     static Locale getLocaleFromIndex(int index) {
-        if (sLocalesArray == null) return Locale.US;
-        return sLocalesArray[index];
+        LocalesMatcher matcher = LocalesUtils.sMatcher;
+        if (matcher == null) return Locale.US;
+        return matcher.getLocale(index);
     }
 
     /**
      * @return the index of the given locale
      */
     static int getIndexOfLocale(Locale locale) {
-        if (sLocalesArray == null || locale == null) {
+        LocalesMatcher matcher = LocalesUtils.sMatcher;
+        if (matcher == null || locale == null) {
             return Locale.US.equals(locale) ? 0 : -1;
         }
-        for (int i = 0; i < sLocalesArray.length; i++) {
-            if (sLocalesArray[i].equals(locale))
-                return i;
-        }
-        return -1;
+        return matcher.getIndex(locale);
     }
 
     /**
@@ -237,54 +391,111 @@ final class LocalesUtils {
      * @return true if the application locale changed
      */
     static boolean setAppLocale(Context context, Locale newLocale) {
-        Resources resources = context.getResources();
+        Locale oldLocale = LocalesUtils.applyLocale(context.getResources(), newLocale);
+
+        if (oldLocale.equals(newLocale)) {
+            return false;
+        }
+        LocalesUtils.sCurrentLocale = null;
+
+        Locale preferredLocale = sLocalesPreferenceManager.getPreferredLocale(
+                LocalesPreferenceManager.USER_PREFERRED_LOCALE);
+        if (LocalesUtils.updatePreferredLocale(newLocale)) {
+            sLogger.info("Locale preferences updated to: " + newLocale);
+            Locale.setDefault(newLocale);
+        } else {
+            sLogger.error("Failed to update locale preferences.");
+        }
+        // New activities resources are often in the system locale, only rebind on real changes
+        if (!newLocale.equals(preferredLocale)) {
+            LocaleBindings.dispatchLocaleChanged(newLocale);
+        }
+
+        return true;
+    }
+
+    /**
+     * Only updates the configuration of the given resources, without touching the preferences.
+     * Resources shared by wrapped contexts are left untouched.
+     * @return the previous locale of the resources
+     */
+    static Locale applyLocale(Resources resources, Locale newLocale) {
         DisplayMetrics displayMetrics = resources.getDisplayMetrics();
         Configuration configuration = resources.getConfiguration();
 
+        if (LocalizedContextFactory.isShared(resources)) {
+            // Switching them would switch every component wrapped in that locale, wrapped
+            // components get the new locale when recreated instead
+            sLogger.debug("Not updating resources shared by wrapped contexts.");
+            return configuration.locale;
+        }
+
+        // Updating the configuration flushes the resources caches, skip it if nothing changes
+        synchronized (sAppliedLocales) {
+            AppliedLocale applied = sAppliedLocales.get(resources);
+            if (applied == null) {
+                // Fresh resources, such as the ones of a new activity, may already be in the locale
+                applied = new AppliedLocale(
+                        newLocale, TextUtils.getLayoutDirectionFromLocale(newLocale));
+            }
+            if (applied.matches(configuration, newLocale)) {
+                sSkippedConfigurationUpdates.incrementAndGet();
+                return newLocale;
+            }
+        }
+
         Locale oldLocale = new Locale(configuration.locale.getLanguage(), configuration.locale.getCountry());
         configuration.locale = newLocale;
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            String language = newLocale.getLanguage();
-            LocaleList localeList;
-            if (language.equals("zh")) {
-                if (Locale.SIMPLIFIED_CHINESE.equals(newLocale)) {
-                    localeList = new LocaleList(newLocale,
-                            Locale.TRADITIONAL_CHINESE, Locale.US);
-                } else {
-                    localeList = new LocaleList(newLocale,
-                            Locale.SIMPLIFIED_CHINESE, Locale.US);
-                }
-            } else {
-                String countryFallback = sCountryFallback.get(language);
-                if (countryFallback != null && !countryFallback.equals(newLocale.getCountry())) {
-                    localeList = new LocaleList(newLocale,
-                            new Locale(language, countryFallback), Locale.US);
-                } else if (!Locale.US.equals(newLocale)) {
-                    localeList = new LocaleList(newLocale, Locale.US);
-                } else {
-                    localeList = new LocaleList(Locale.US);
-                }
-            }
-            configuration.setLocales(localeList);
+            configuration.setLocales(new LocaleList(
+                    LocalesMatcher.getFallbackLocales(newLocale)));
         }
         // Sets the layout direction from the Locale
         sLogger.debug("Setting the layout direction");
         configuration.setLayoutDirection(newLocale);
         resources.updateConfiguration(configuration, displayMetrics);
+        sConfigurationUpdates.incrementAndGet();
+        LocalesUtils.markLocaleApplied(resources, newLocale);
+        return oldLocale;
+    }
 
-        if (oldLocale.equals(newLocale)) {
-            return false;
+    /**
+     * Records that the given resources have been created in the given locale
+     */
+    static void markLocaleApplied(Resources resources, Locale locale) {
+        synchronized (sAppliedLocales) {
+            sAppliedLocales.put(resources, new AppliedLocale(
+                    locale, resources.getConfiguration().getLayoutDirection()));
         }
+    }
 
-        if (LocalesUtils.updatePreferredLocale(newLocale)) {
-            sLogger.info("Locale preferences updated to: " + newLocale);
-            Locale.setDefault(newLocale);
-        } else {
-            sLogger.error("Failed to update locale preferences.");
+    /**
+     * @param base the context to wrap
+     * @return a context in the preferred locale, or the given one if not initialized yet
+     */
+    static Context wrapContext(Context base) {
+        DeferredInitializer.ensureInitialized();
+        LocalesPreferenceManager preferenceManager = LocalesUtils.sLocalesPreferenceManager;
+        if (preferenceManager == null) {
+            return base;
         }
+        return LocalizedContextFactory.wrap(base, preferenceManager
+                .getPreferredLocale(LocalesPreferenceManager.USER_PREFERRED_LOCALE));
+    }
 
-        return true;
+    /**
+     * @return the number of resources configuration updates done
+     */
+    static int getConfigurationUpdates() {
+        return sConfigurationUpdates.get();
+    }
+
+    /**
+     * @return the number of resources configuration updates skipped as nothing changed
+     */
+    static int getSkippedConfigurationUpdates() {
+        return sSkippedConfigurationUpdates.get();
     }
 
     /**
@@ -298,18 +509,32 @@ final class LocalesUtils {
      * @param stringId the target string
      * @return a localized string
      */
-    static String getInSpecificLocale(FragmentActivity activity, Locale locale, int stringId) {
-
-        Configuration conf = activity.getResources().getConfiguration();
-        Locale old = conf.locale;
+    static String getInSpecificLocale(Locale locale, int stringId) {
+        return sResourcesCache.get(locale).getString(stringId);
+    }
 
-        conf.locale = locale;
-        DisplayMetrics metrics = new DisplayMetrics();
-        activity.getWindowManager().getDefaultDisplay().getMetrics(metrics);
-        Resources resources = new Resources(activity.getAssets(), metrics, conf);
-        conf.locale = old;
+    /**
+     * @param stringIds the target strings
+     * @return the localized strings, all resolved against the same resources
+     */
+    static String[] getInSpecificLocale(Locale locale, int... stringIds) {
+        Resources resources = sResourcesCache.get(locale);
+        String[] strings = new String[stringIds.length];
+        for (int i = 0; i < stringIds.length; i++) {
+            strings[i] = resources.getString(stringIds[i]);
+        }
+        return strings;
+    }
 
-        return resources.getString(stringId);
+    /**
+     * @param refreshStrategy how activities are refreshed after the locale changed
+     */
+    static void setRefreshStrategy(int refreshStrategy) {
+        if (refreshStrategy != REFRESH_STRATEGY_RELAUNCH &&
+                refreshStrategy != REFRESH_STRATEGY_RECREATE) {
+            throw new IllegalArgumentException("Invalid refresh strategy: " + refreshStrategy);
+        }
+        LocalesUtils.sRefreshStrategy = refreshStrategy;
     }
 
     /**
@@ -321,11 +546,21 @@ final class LocalesUtils {
             ((LanguageActivity) activity).refreshRosettaX();
             return;
         }
-        Method method = null;
-        try {
-            method = activity.getClass().getMethod("refreshRosettaX");
-        } catch (NoSuchMethodException ignored) {}
-        if (method != null && !Modifier.isAbstract(method.getModifiers())) {
+        if (LocaleBindings.isLiveSwitchEnabled(activity)) {
+            // Strings are rebound, only the activity resources have to follow the new locale
+            sLogger.debug("Live switching the locale.");
+            LocalesUtils.applyLocale(activity.getResources(), sLocalesPreferenceManager
+                    .getPreferredLocale(LocalesPreferenceManager.USER_PREFERRED_LOCALE));
+            sLocalesPreferenceManager.markActivitiesForRecreation(activity);
+            return;
+        }
+        if (LocalesUtils.sRefreshStrategy == REFRESH_STRATEGY_RECREATE) {
+            sLogger.debug("Recreating activities.");
+            sLocalesPreferenceManager.recreateActivities(activity);
+            return;
+        }
+        Method method = LocalesUtils.getRefreshMethod(activity.getClass());
+        if (method != null) {
             try {
                 method.invoke(activity);
             } catch (ReflectiveOperationException e) {
@@ -351,6 +586,27 @@ final class LocalesUtils {
         sLogger.debug("Application refreshed");
     }
 
+    /**
+     * Methods are looked up once per class, without throwing when there is none
+     * @return the public refreshRosettaX method of the activity class, or null
+     */
+    private static Method getRefreshMethod(Class<?> activityClass) {
+        Object method = sRefreshMethods.get(activityClass);
+        if (method == null) {
+            method = NO_REFRESH_METHOD;
+            for (Method candidate: activityClass.getMethods()) {
+                if (candidate.getName().equals("refreshRosettaX") &&
+                        candidate.getParameterTypes().length == 0 &&
+                        !Modifier.isAbstract(candidate.getModifiers())) {
+                    method = candidate;
+                    break;
+                }
+            }
+            sRefreshMethods.put(activityClass, method);
+        }
+        return method == NO_REFRESH_METHOD ? null : (Method) method;
+    }
+
     /**
      * @return the first launch locale
      */
@@ -370,6 +626,19 @@ final class LocalesUtils {
             return false;
         }
 
+        if (LocalesUtils.sUsePlatformLocales &&
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            if (newLocale.equals(sLocalesPreferenceManager.getPreferredLocale(
+                    LocalesPreferenceManager.USER_PREFERRED_LOCALE))) {
+                return false;
+            }
+            // The platform recreates activities, no need to relaunch the app
+            LocalesUtils.updatePreferredLocale(newLocale);
+            LocalesUtils.sCurrentLocale = null;
+            PlatformLocales.setApplicationLocale(activity, newLocale);
+            return true;
+        }
+
         if (LocalesUtils.setAppLocale(activity.getApplicationContext(), newLocale)) {
             LocalesUtils.refreshApplication(activity);
             return true;
@@ -410,17 +679,88 @@ final class LocalesUtils {
      * @return parsed local object
      */
     static Locale parseLocale(String locale) {
-        int i = locale.indexOf('-');
-        return i == -1 || i + 1 == locale.length() ? new Locale(locale) :
-                new Locale(locale.substring(0, i), locale.substring(
-                        i + (locale.charAt(i + 1) == 'r' ? 2 : 1)));
+        return Locales.parse(locale);
+    }
+
+    /**
+     * Background thread of the library, running locales detection and display names loading. The
+     * thread is started on demand and stops after being idle for a few seconds.
+     */
+    static final class BackgroundHolder {
+        static final ThreadPoolExecutor EXECUTOR = newExecutor("RosettaX");
+        static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+        /**
+         * @return a single daemon thread executor, for work that must not wait behind the
+         *         library background thread
+         */
+        static ThreadPoolExecutor newExecutor(String name) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the current app locale
+     */
+    static final class CurrentLocale {
+        final Locale locale;
+        final int index;
+
+        CurrentLocale(Locale locale, int index) {
+            this.locale = locale;
+            this.index = index;
+        }
     }
 
     /**
-     * @param locale the locale
-     * @return the country fallback for the provided locale
+     * The locale last applied to a resources object, or expected from it, the system may have
+     * changed its configuration since then
      */
-    static String getCountryFallback(Locale locale) {
-        return sCountryFallback.get(locale.getLanguage());
+    private static final class AppliedLocale {
+        final Locale locale;
+        final int layoutDirection;
+
+        AppliedLocale(Locale locale, int layoutDirection) {
+            this.locale = locale;
+            this.layoutDirection = layoutDirection;
+        }
+
+        /**
+         * @return true if applying the given locale to the configuration would change nothing
+         */
+        boolean matches(Configuration configuration, Locale newLocale) {
+            if (!this.locale.equals(newLocale) || !newLocale.equals(configuration.locale) ||
+                    this.layoutDirection != configuration.getLayoutDirection()) {
+                return false;
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                LocaleList locales = configuration.getLocales();
+                return !locales.isEmpty() && newLocale.equals(locales.get(0));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Drops the current locale snapshot when the system changes the configuration locale
+     */
+    static final class ConfigurationCallbacks implements ComponentCallbacks {
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration newConfig) {
+            CurrentLocale current = LocalesUtils.sCurrentLocale;
+            if (current != null && !current.locale.equals(newConfig.locale)) {
+                LocalesUtils.sCurrentLocale = null;
+            }
+        }
+
+        @Override
+        public void onLowMemory() {}
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,159 @@
+package com.fox2code.rosettax;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.pm.ActivityInfo;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.os.Build;
+import android.os.LocaleList;
+
+import androidx.annotation.NonNull;
+
+import com.fox2code.rosettax.core.LocalesMatcher;
+
+import java.lang.ref.WeakReference;
+import java.util.Locale;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class creates contexts with resources in a specific locale, to be returned from
+ * attachBaseContext, so components are localized without mutating any shared configuration.
+ * The override configuration and the resources of each locale are cached, so wrapping a new base
+ * only creates a lightweight wrapper, and wrapping the same base again is a lookup.
+ */
+final class LocalizedContextFactory {
+    private static final ConcurrentHashMap<Locale, Configuration> sOverrides =
+            new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Locale, LocalizedResources> sResources =
+            new ConcurrentHashMap<>();
+    /**
+     * Values are weak as the created contexts reference their base
+     */
+    private static final WeakHashMap<Context, WeakReference<LocalizedContext>> sContexts =
+            new WeakHashMap<>();
+
+    private LocalizedContextFactory() {}
+
+    /**
+     * @param base the context to wrap
+     * @param locale the wanted locale
+     * @return a context using resources in the given locale
+     */
+    static Context wrap(@NonNull Context base, @NonNull Locale locale) {
+        synchronized (sContexts) {
+            WeakReference<LocalizedContext> reference = sContexts.get(base);
+            LocalizedContext context = reference == null ? null : reference.get();
+            if (context != null && context.mLocale.equals(locale)) {
+                return context;
+            }
+        }
+        Resources resources = LocalizedContextFactory.getResources(base, locale);
+        LocalizedContext context = new LocalizedContext(base, locale, resources);
+        synchronized (sContexts) {
+            sContexts.put(base, new WeakReference<>(context));
+        }
+        return context;
+    }
+
+    /**
+     * Bases using the application configuration, like most services, receivers and activities,
+     * share the resources created from the application context for the locale
+     * @return resources in the given locale for the given base
+     */
+    private static Resources getResources(Context base, Locale locale) {
+        Context application = base.getApplicationContext();
+        Configuration configuration = base.getResources().getConfiguration();
+        if (application == null || !LocalizedContextFactory.isSameConfiguration(
+                configuration, application.getResources().getConfiguration())) {
+            // The base has its own configuration, such as an activity in multi-window mode
+            return LocalizedContextFactory.createResources(base, locale);
+        }
+        LocalizedResources localized = sResources.get(locale);
+        if (localized == null || !LocalizedContextFactory.isSameConfiguration(
+                localized.mConfiguration, configuration)) {
+            localized = new LocalizedResources(new Configuration(configuration),
+                    LocalizedContextFactory.createResources(application, locale));
+            sResources.put(locale, localized);
+        }
+        return localized.mResources;
+    }
+
+    /**
+     * @return true if the configurations only differ by the fields the locale override replaces
+     */
+    private static boolean isSameConfiguration(Configuration first, Configuration second) {
+        return (first.diff(second) &
+                ~(ActivityInfo.CONFIG_LOCALE | ActivityInfo.CONFIG_LAYOUT_DIRECTION)) == 0;
+    }
+
+    /**
+     * @return true if the given resources are shared by the contexts wrapped in their locale, they
+     *         must not be updated to another locale
+     */
+    static boolean isShared(Resources resources) {
+        for (LocalizedResources localized: sResources.values()) {
+            if (localized.mResources == resources) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Resources createResources(Context context, Locale locale) {
+        Resources resources = context.createConfigurationContext(
+                LocalizedContextFactory.getOverride(locale)).getResources();
+        // Already localized, applying the locale on activity creation has nothing to do
+        LocalesUtils.markLocaleApplied(resources, locale);
+        return resources;
+    }
+
+    /**
+     * @return a configuration only defining the locale fields, must not be modified
+     */
+    private static Configuration getOverride(Locale locale) {
+        Configuration override = sOverrides.get(locale);
+        if (override == null) {
+            override = new Configuration();
+            // Older versions default to a font scale of 1, which would override the user one
+            override.fontScale = 0;
+            override.setLocale(locale);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                override.setLocales(new LocaleList(LocalesMatcher.getFallbackLocales(locale)));
+            }
+            override.setLayoutDirection(locale);
+            sOverrides.put(locale, override);
+        }
+        return override;
+    }
+
+    /**
+     * Resources created from the application context, with the configuration they derive from
+     */
+    private static final class LocalizedResources {
+        final Configuration mConfiguration;
+        final Resources mResources;
+
+        LocalizedResources(Configuration configuration, Resources resources) {
+            this.mConfiguration = configuration;
+            this.mResources = resources;
+        }
+    }
+
+    private static final class LocalizedContext extends ContextWrapper {
+        final Locale mLocale;
+        private final Resources mResources;
+
+        LocalizedContext(Context base, Locale locale, Resources resources) {
+            super(base);
+            this.mLocale = locale;
+            this.mResources = resources;
+        }
+
+        @Override
+        public Resources getResources() {
+            return mResources;
+        }
+    }
+}
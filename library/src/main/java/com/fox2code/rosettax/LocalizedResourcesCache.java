@@ -0,0 +1,95 @@
+package com.fox2code.rosettax;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+
+import androidx.annotation.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This class keeps the most recently used localized resources, so getting strings in a specific
+ * locale doesn't create a new Resources object every time. Entries are evicted when the
+ * configuration changes as they are derived from the application configuration.
+ */
+final class LocalizedResourcesCache implements ComponentCallbacks2 {
+    static final int DEFAULT_MAX_SIZE = 8;
+
+    private final Context mContext;
+    private final LinkedHashMap<Locale, Resources> mCache;
+    private int mMaxSize = DEFAULT_MAX_SIZE;
+
+    LocalizedResourcesCache(Context context) {
+        this.mContext = context;
+        this.mCache = new LinkedHashMap<Locale, Resources>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Locale, Resources> eldest) {
+                return this.size() > mMaxSize;
+            }
+        };
+    }
+
+    /**
+     * @param locale the wanted locale
+     * @return the application resources in the given locale
+     */
+    synchronized Resources get(@NonNull Locale locale) {
+        Resources resources = mCache.get(locale);
+        if (resources == null) {
+            resources = this.create(locale);
+            mCache.put(locale, resources);
+        }
+        return resources;
+    }
+
+    /**
+     * Creates localized resources without keeping them, for one-shot lookups that would evict the
+     * entries other callers rely on.
+     *
+     * @param locale the wanted locale
+     * @return new application resources in the given locale
+     */
+    Resources create(@NonNull Locale locale) {
+        Configuration conf = new Configuration(mContext.getResources().getConfiguration());
+        conf.setLocale(locale);
+        return mContext.createConfigurationContext(conf).getResources();
+    }
+
+    /**
+     * @param maxSize the maximum number of localized resources to keep
+     */
+    synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Invalid cache size: " + maxSize);
+        }
+        this.mMaxSize = maxSize;
+        while (mCache.size() > maxSize) {
+            mCache.remove(mCache.keySet().iterator().next());
+        }
+    }
+
+    synchronized void clear() {
+        mCache.clear();
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        this.clear();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            this.clear();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        this.clear();
+    }
+}
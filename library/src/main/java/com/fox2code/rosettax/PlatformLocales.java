@@ -0,0 +1,84 @@
+package com.fox2code.rosettax;
+
+import android.app.LocaleManager;
+import android.content.Context;
+import android.os.Build;
+import android.os.LocaleList;
+
+import androidx.annotation.ChecksSdkIntAtLeast;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import com.fox2code.rosettax.core.LocalesMatcher;
+
+import java.util.Locale;
+
+/**
+ * This class delegates the app locale to the platform per-app languages, so the system stores it,
+ * shows it in the app settings, and applies it through the configuration change path.
+ * It is only used on Android 13 and above, where the platform handles it for any activity. The
+ * LocaleManager is used directly, as it works before any activity is created.
+ */
+final class PlatformLocales {
+    private PlatformLocales() {}
+
+    /**
+     * @return true if the app opted in and the platform supports per-app languages
+     */
+    @ChecksSdkIntAtLeast(api = Build.VERSION_CODES.TIRAMISU)
+    static boolean isAvailable(Context context) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU &&
+                context.getResources().getBoolean(R.bool.rosetta_use_platform_locales);
+    }
+
+    /**
+     * @return the app locale stored by the platform, or null if the app follows the system
+     */
+    @Nullable
+    @RequiresApi(Build.VERSION_CODES.TIRAMISU)
+    static Locale getApplicationLocale(Context context) {
+        LocaleList locales = context.getSystemService(LocaleManager.class)
+                .getApplicationLocales();
+        return locales.isEmpty() ? null : locales.get(0);
+    }
+
+    /**
+     * Activities are recreated by the platform if the locale changed
+     */
+    @RequiresApi(Build.VERSION_CODES.TIRAMISU)
+    static void setApplicationLocale(Context context, Locale locale) {
+        context.getSystemService(LocaleManager.class).setApplicationLocales(
+                new LocaleList(LocalesMatcher.getFallbackLocales(locale)));
+    }
+
+    /**
+     * Synchronizes the stored preferred locale with the platform one. The stored locale is given
+     * to the platform only once, after that the platform one wins as the user can change it from
+     * the system settings, including back to the system default
+     * @return the locale the app uses
+     */
+    @RequiresApi(Build.VERSION_CODES.TIRAMISU)
+    static Locale migrate(Context context, LocalesPreferenceManager preferenceManager) {
+        Locale stored = preferenceManager.getPreferredLocale(
+                LocalesPreferenceManager.USER_PREFERRED_LOCALE);
+        Locale platform = PlatformLocales.getApplicationLocale(context);
+        if (!preferenceManager.isPlatformMigrated()) {
+            preferenceManager.setPlatformMigrated();
+            if (platform == null) {
+                // Keep following the system if the user never picked a locale
+                if (!stored.equals(preferenceManager.getPreferredLocale(
+                        LocalesPreferenceManager.LAUNCH_LOCALE))) {
+                    PlatformLocales.setApplicationLocale(context, stored);
+                }
+                return stored;
+            }
+        }
+        if (platform == null) {
+            // The user picked the system default in the system settings
+            platform = LocalesUtils.getSystemLocales()[0];
+        }
+        preferenceManager.setPreferredLocale(
+                LocalesPreferenceManager.USER_PREFERRED_LOCALE, platform);
+        return platform;
+    }
+}
@@ -0,0 +1,143 @@
+package com.fox2code.rosettax;
+
+import android.app.Dialog;
+import android.content.Context;
+import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
+
+import com.fox2code.rosettax.core.LocalesSearchIndex;
+
+/**
+ * This fragment is a language picker for apps supporting a lot of locales, rows are recycled,
+ * the list can be filtered by typing a locale native name, english name or tag, and the system
+ * locales are listed first.
+ */
+public class SearchableLanguagesDialogFragment extends LanguagesListDialogFragment {
+    private LocalesSearchIndex mSearchIndex;
+    private LocalesAdapter mAdapter;
+    private ListView mListView;
+
+    @NonNull
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        DeferredInitializer.ensureInitialized();
+        AlertDialog.Builder builder = newDialogBuilder();
+        Context context = builder.getContext();
+        int padding = (int) (16 * context.getResources().getDisplayMetrics().density);
+
+        mSearchIndex = LocalesUtils.newLocalesSearchIndex();
+        mAdapter = new LocalesAdapter(
+                LayoutInflater.from(context), mSearchIndex, getLanguages());
+
+        EditText searchView = new EditText(context);
+        searchView.setSingleLine(true);
+        searchView.setHint(R.string.rosetta_search);
+        searchView.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                mSearchIndex.search(s);
+                mAdapter.notifyDataSetChanged();
+                updateCheckedItem();
+            }
+        });
+
+        mListView = new ListView(context);
+        mListView.setChoiceMode(AbsListView.CHOICE_MODE_SINGLE);
+        mListView.setFastScrollEnabled(true);
+        mListView.setAdapter(mAdapter);
+        mListView.setOnItemClickListener((parent, view, position, id) ->
+                onLanguageSelectedLocalized((int) id));
+
+        LinearLayout layout = new LinearLayout(context);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        layout.setPadding(padding, 0, padding, 0);
+        layout.addView(searchView, new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        layout.addView(mListView, new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+
+        onLanguageSelected(getCurrentLocaleIndex());
+        updateCheckedItem();
+        return builder.setView(layout).create();
+    }
+
+    @Override
+    protected ListView getLocalesListView() {
+        return mListView;
+    }
+
+    /**
+     * Checks the row of the selected locale, if it matches the search query
+     */
+    private void updateCheckedItem() {
+        int position = mSearchIndex.getPosition(getSelectedLanguage());
+        if (position == -1) {
+            mListView.clearChoices();
+        } else {
+            mListView.setItemChecked(position, true);
+        }
+    }
+
+    private static final class LocalesAdapter extends BaseAdapter {
+        private final LayoutInflater mInflater;
+        private final LocalesSearchIndex mSearchIndex;
+        private final String[] mDisplayNames;
+
+        LocalesAdapter(LayoutInflater inflater, LocalesSearchIndex searchIndex,
+                       String[] displayNames) {
+            this.mInflater = inflater;
+            this.mSearchIndex = searchIndex;
+            this.mDisplayNames = displayNames;
+        }
+
+        @Override
+        public int getCount() {
+            return mSearchIndex.getResultsCount();
+        }
+
+        @Override
+        public String getItem(int position) {
+            return mDisplayNames[mSearchIndex.getResult(position)];
+        }
+
+        /**
+         * @return the index of the locale at the given position
+         */
+        @Override
+        public long getItemId(int position) {
+            return mSearchIndex.getResult(position);
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            TextView view = (TextView) (convertView != null ? convertView : mInflater.inflate(
+                    android.R.layout.simple_list_item_single_choice, parent, false));
+            view.setText(getItem(position));
+            return view;
+        }
+    }
+}